@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.StreamUtils;
+
+import doge.photo.SourceImages.Size;
+import doge.photo.SourceImages.Type;
+
+/**
+ * JMH benchmarks for {@link DogePhotoManipulator}, covering the complete
+ * {@link DogePhotoManipulator#manipulate(Photo) manipulate} call as well as each of its
+ * decode, resize, overlay and encode stages in isolation.
+ *
+ * @author Josh Long
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DogePhotoManipulatorBenchmark {
+
+	@Benchmark
+	public byte[] manipulate(Corpus corpus) throws IOException {
+		Photo photo = corpus.manipulator.manipulate(corpus.sourcePhoto, corpus.width)
+				.get(0);
+		try (InputStream inputStream = photo.getInputStream()) {
+			return StreamUtils.copyToByteArray(inputStream);
+		}
+	}
+
+	@Benchmark
+	public BufferedImage decode(Corpus corpus) throws IOException {
+		return corpus.manipulator.readImage(corpus.sourcePhoto, corpus.width);
+	}
+
+	@Benchmark
+	public BufferedImage resize(Corpus corpus) {
+		BufferedImage destinationImage = corpus.manipulator.createDestinationImage(
+				corpus.sourceImage, corpus.width);
+		corpus.manipulator.renderBackground(corpus.sourceImage, destinationImage);
+		return destinationImage;
+	}
+
+	@Benchmark
+	public BufferedImage overlay(Corpus corpus, OverlayTarget target) {
+		Graphics2D graphics = target.image.createGraphics();
+		try {
+			DogePhotoManipulator.setGraphicsHints(graphics);
+			corpus.manipulator.renderOverlay(target.image, graphics);
+		}
+		finally {
+			graphics.dispose();
+		}
+		return target.image;
+	}
+
+	@Benchmark
+	public byte[] encode(Corpus corpus) throws IOException {
+		Photo photo = corpus.manipulator.encode(corpus.manipulatedImage);
+		try (InputStream inputStream = photo.getInputStream()) {
+			return StreamUtils.copyToByteArray(inputStream);
+		}
+	}
+
+	/**
+	 * Run all benchmarks with the GC profiler so that allocation rates are reported
+	 * alongside throughput.
+	 * @param args the application arguments
+	 * @throws RunnerException
+	 */
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(DogePhotoManipulatorBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class).build();
+		new Runner(options).run();
+	}
+
+	/**
+	 * The benchmark corpus: an uploaded source photo of a given size and type together
+	 * with the intermediate images that each stage consumes.
+	 */
+	@State(Scope.Benchmark)
+	public static class Corpus {
+
+		@Param
+		public Size size;
+
+		@Param
+		public Type type;
+
+		@Param("300")
+		public int width;
+
+		@Param({ "graphics2d", "raster" })
+		public String resizer;
+
+		DogePhotoManipulator manipulator;
+
+		Photo sourcePhoto;
+
+		BufferedImage sourceImage;
+
+		BufferedImage resizedImage;
+
+		BufferedImage manipulatedImage;
+
+		@Setup
+		public void setup() throws IOException {
+			this.manipulator = new DogePhotoManipulator();
+			this.manipulator.setResizer("raster".equals(this.resizer)
+					? new RasterImageResizer() : new Graphics2DImageResizer());
+			this.manipulator.addTextOverlay("pivotal", "abstractfactorybean", "java");
+			this.manipulator.addTextOverlay("spring", "annotations", "boot");
+			this.manipulator.addTextOverlay("code", "semicolonfree", "groovy");
+			BufferedImage image = SourceImages.create(this.size, this.type);
+			byte[] bytes = SourceImages.encode(image, this.type);
+			this.sourcePhoto = () -> new ByteArrayInputStream(bytes);
+			// resize and overlay always measure the requested source type
+			this.sourceImage = SourceImages.convert(this.manipulator.readImage(
+					this.sourcePhoto, this.width), this.type);
+			this.resizedImage = this.manipulator.createDestinationImage(
+					this.sourceImage, this.width);
+			this.manipulator.renderBackground(this.sourceImage, this.resizedImage);
+			this.manipulatedImage = this.manipulator.manipulate(this.sourceImage,
+					this.width);
+		}
+
+	}
+
+	/**
+	 * A fresh copy of the resized corpus image for each overlay invocation, so that
+	 * overlays are never drawn on top of those from earlier invocations.
+	 */
+	@State(Scope.Thread)
+	public static class OverlayTarget {
+
+		BufferedImage image;
+
+		@Setup(Level.Invocation)
+		public void setup(Corpus corpus) {
+			ColorModel colorModel = corpus.resizedImage.getColorModel();
+			this.image = new BufferedImage(colorModel,
+					corpus.resizedImage.copyData(null),
+					colorModel.isAlphaPremultiplied(), null);
+		}
+
+	}
+
+}
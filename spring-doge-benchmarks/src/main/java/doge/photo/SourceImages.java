@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Synthetic source images used as the benchmark corpus. Images are filled with a
+ * gradient and some noise so that they compress like a real photo rather than a flat
+ * color.
+ *
+ * @author Josh Long
+ */
+final class SourceImages {
+
+	private SourceImages() {
+	}
+
+	/**
+	 * Create a source image.
+	 * @param size the size of the image
+	 * @param type the type of the image
+	 * @return the image
+	 */
+	public static BufferedImage create(Size size, Type type) {
+		BufferedImage rgb = new BufferedImage(size.getWidth(), size.getHeight(),
+				BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = rgb.createGraphics();
+		try {
+			graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, size.getWidth(),
+					size.getHeight(), Color.BLUE));
+			graphics.fillRect(0, 0, size.getWidth(), size.getHeight());
+		}
+		finally {
+			graphics.dispose();
+		}
+		Random random = new Random(size.ordinal());
+		for (int i = 0; i < rgb.getWidth() * rgb.getHeight() / 16; i++) {
+			rgb.setRGB(random.nextInt(rgb.getWidth()), random.nextInt(rgb.getHeight()),
+					random.nextInt());
+		}
+		return convert(rgb, type);
+	}
+
+	/**
+	 * Convert an image to the given type. Decoders do not always return the type that
+	 * was encoded, JPEG RGB images for example are decoded as
+	 * {@link BufferedImage#TYPE_3BYTE_BGR}.
+	 * @param image the image
+	 * @param type the required type
+	 * @return the image, converted if necessary
+	 */
+	public static BufferedImage convert(BufferedImage image, Type type) {
+		if (image.getType() == type.getImageType()) {
+			return image;
+		}
+		BufferedImage converted = new BufferedImage(image.getWidth(), image.getHeight(),
+				type.getImageType());
+		Graphics2D graphics = converted.createGraphics();
+		try {
+			graphics.drawImage(image, 0, 0, null);
+		}
+		finally {
+			graphics.dispose();
+		}
+		return converted;
+	}
+
+	/**
+	 * Encode an image in the format an upload of the given type would use.
+	 * @param image the image
+	 * @param type the type of the image
+	 * @return the encoded bytes
+	 * @throws IOException
+	 */
+	public static byte[] encode(BufferedImage image, Type type) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(image, type.getFormatName(), outputStream);
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * Source image sizes, from a phone camera down to a thumbnail.
+	 */
+	public static enum Size {
+
+		MP12(4000, 3000), MP8(3264, 2448), HD(1920, 1080), VGA(640, 480), THUMBNAIL(160,
+				120);
+
+		private final int width;
+
+		private final int height;
+
+		private Size(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+
+		public int getWidth() {
+			return this.width;
+		}
+
+		public int getHeight() {
+			return this.height;
+		}
+
+	}
+
+	/**
+	 * Source image types. Indexed images are uploaded as PNG since JPEG cannot carry a
+	 * palette.
+	 */
+	public static enum Type {
+
+		RGB(BufferedImage.TYPE_INT_RGB, "jpeg"), GREY(BufferedImage.TYPE_BYTE_GRAY, "jpeg"), INDEXED(
+				BufferedImage.TYPE_BYTE_INDEXED, "png");
+
+		private final int imageType;
+
+		private final String formatName;
+
+		private Type(int imageType, String formatName) {
+			this.imageType = imageType;
+			this.formatName = formatName;
+		}
+
+		public int getImageType() {
+			return this.imageType;
+		}
+
+		public String getFormatName() {
+			return this.formatName;
+		}
+
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link PhotoManipulator}. Callers are never blocked
+ * while a photo is being manipulated.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public interface AsyncPhotoManipulator {
+
+	/**
+	 * Manipulates a photo, producing a rendition for each of the given widths.
+	 * @param photo the source photo
+	 * @param widths the widths of the renditions
+	 * @return a future completed with the manipulated photos, in the same order as the
+	 * widths, or completed exceptionally if the photo cannot be manipulated
+	 * @see PhotoManipulator#manipulate(Photo, int...)
+	 */
+	CompletableFuture<List<Photo>> manipulate(Photo photo, int... widths);
+
+	/**
+	 * Return a key that identifies the manipulation currently applied.
+	 * @return the manipulation key
+	 * @see PhotoManipulator#getManipulationKey()
+	 */
+	String getManipulationKey();
+
+}
@@ -25,22 +25,32 @@ import java.awt.RenderingHints;
 import java.awt.Shape;
 import java.awt.font.GlyphVector;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
-import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
-import javax.imageio.ImageWriteParam;
-import javax.imageio.ImageWriter;
-import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.util.Assert;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.DigestUtils;
+
+import doge.photo.StageRecorder.Stage;
 
 /**
  * A {@link PhotoManipulator} to add Doge images.
@@ -50,13 +60,28 @@ import org.springframework.util.Assert;
  */
 public class DogePhotoManipulator implements PhotoManipulator {
 
-	private static final int IMAGE_WIDTH = 300;
+	private static final int DEFAULT_WIDTH = 300;
+
+	private static final long DEFAULT_PARALLEL_RENDER_THRESHOLD = 500000;
 
-	private final Random random = new Random();
+	private Supplier<Random> randomSource = ThreadLocalRandom::current;
 
 	private BufferedImage dogeLogo;
 
-	private final List<TextOverlay> textOverlays = new ArrayList<>();
+	private final AtomicReference<List<TextOverlay>> textOverlays = new AtomicReference<>(
+			Collections.<TextOverlay> emptyList());
+
+	private JpegPhotoEncoder encoder = new JpegPhotoEncoder();
+
+	private ImageResizer resizer = new Graphics2DImageResizer();
+
+	private ForkJoinPool renderPool;
+
+	private long parallelRenderThreshold = DEFAULT_PARALLEL_RENDER_THRESHOLD;
+
+	private int maxTextOverlays = Integer.MAX_VALUE;
+
+	private StageRecorder stageRecorder = StageRecorder.NONE;
 
 	public DogePhotoManipulator() {
 		this(readClassImage("/doge-logo.png"));
@@ -67,73 +92,318 @@ public class DogePhotoManipulator implements PhotoManipulator {
 		this.dogeLogo = dogeLogo;
 	}
 
-	public void addTextOverlay(String very, String so, String what) {
-		this.textOverlays.add(new TextOverlay(very, so, what));
+	public void setEncoder(JpegPhotoEncoder encoder) {
+		Assert.notNull(encoder, "Encoder must not be null");
+		this.encoder = encoder;
+	}
+
+	/**
+	 * Set the {@link ImageResizer} used to scale source images. Defaults to a
+	 * {@link Graphics2DImageResizer}.
+	 * @param resizer the resizer
+	 * @see RasterImageResizer
+	 */
+	public void setResizer(ImageResizer resizer) {
+		Assert.notNull(resizer, "Resizer must not be null");
+		this.resizer = resizer;
+	}
+
+	/**
+	 * Set the {@link ForkJoinPool} used to render large images. Images with at least
+	 * {@link #setParallelRenderThreshold(long) threshold} pixels are resized and
+	 * composited in horizontal bands, one per pool thread. By default all images are
+	 * rendered on the calling thread.
+	 * @param renderPool the render pool or {@code null}
+	 */
+	public void setRenderPool(ForkJoinPool renderPool) {
+		this.renderPool = renderPool;
+	}
+
+	/**
+	 * Set the number of output pixels above which images are rendered in parallel
+	 * bands. Defaults to 500,000.
+	 * @param parallelRenderThreshold the threshold in pixels
+	 * @see #setRenderPool(ForkJoinPool)
+	 */
+	public void setParallelRenderThreshold(long parallelRenderThreshold) {
+		Assert.isTrue(parallelRenderThreshold >= 0,
+				"ParallelRenderThreshold must not be negative");
+		this.parallelRenderThreshold = parallelRenderThreshold;
+	}
+
+	/**
+	 * Set the maximum number of text overlays that may be added. Defaults to no limit.
+	 * @param maxTextOverlays the maximum number of text overlays
+	 */
+	public void setMaxTextOverlays(int maxTextOverlays) {
+		Assert.isTrue(maxTextOverlays >= 0, "MaxTextOverlays must not be negative");
+		this.maxTextOverlays = maxTextOverlays;
+	}
+
+	/**
+	 * Set the {@link StageRecorder} told how long each stage of a manipulation takes.
+	 * @param stageRecorder the stage recorder
+	 */
+	public void setStageRecorder(StageRecorder stageRecorder) {
+		Assert.notNull(stageRecorder, "StageRecorder must not be null");
+		this.stageRecorder = stageRecorder;
+	}
+
+	/**
+	 * Set the source of {@link Random} instances used to pick a text overlay. Defaults
+	 * to {@link ThreadLocalRandom}. A supplier returning a seeded {@link Random} can be
+	 * used for repeatable results.
+	 * @param randomSource the random source
+	 */
+	public void setRandomSource(Supplier<Random> randomSource) {
+		Assert.notNull(randomSource, "RandomSource must not be null");
+		this.randomSource = randomSource;
+	}
+
+	/**
+	 * Add a text overlay. Overlays may be added while photos are being manipulated.
+	 * @param very the 'very' text
+	 * @param so the 'so' text
+	 * @param what the 'such' text
+	 * @return {@code true} if the overlay was added or {@code false} if an identical
+	 * overlay already exists
+	 * @throws IllegalStateException if the maximum number of overlays already exist
+	 * @see #setMaxTextOverlays(int)
+	 */
+	public boolean addTextOverlay(String very, String so, String what) {
+		TextOverlay textOverlay = new TextOverlay(very, so, what);
+		int maxTextOverlays = this.maxTextOverlays;
+		List<TextOverlay> previous = this.textOverlays.getAndUpdate((textOverlays) -> {
+			if (textOverlays.contains(textOverlay)
+					|| textOverlays.size() >= maxTextOverlays) {
+				return textOverlays;
+			}
+			List<TextOverlay> updated = new ArrayList<>(textOverlays);
+			updated.add(textOverlay);
+			return Collections.unmodifiableList(updated);
+		});
+		if (previous.contains(textOverlay)) {
+			return false;
+		}
+		Assert.state(previous.size() < maxTextOverlays, "Maximum of " + maxTextOverlays
+				+ " text overlays reached");
+		return true;
+	}
+
+	/**
+	 * Remove a text overlay. Overlays may be removed while photos are being manipulated.
+	 * @param very the 'very' text
+	 * @param so the 'so' text
+	 * @param what the 'such' text
+	 * @return {@code true} if the overlay was removed
+	 */
+	public boolean removeTextOverlay(String very, String so, String what) {
+		TextOverlay textOverlay = new TextOverlay(very, so, what);
+		List<TextOverlay> previous = this.textOverlays.getAndUpdate((textOverlays) -> {
+			List<TextOverlay> updated = new ArrayList<>(textOverlays);
+			updated.remove(textOverlay);
+			return Collections.unmodifiableList(updated);
+		});
+		return previous.contains(textOverlay);
+	}
+
+	/**
+	 * Return a snapshot of the current text overlays.
+	 * @return the text overlays
+	 */
+	public List<TextOverlay> getTextOverlays() {
+		return this.textOverlays.get();
+	}
+
+	/**
+	 * Return a key derived from the resizer and the current text overlays, since any of
+	 * them may be chosen for a photo. Adding or removing any overlay changes the key, so
+	 * photos manipulated before and after the change are not considered identical.
+	 */
+	@Override
+	public String getManipulationKey() {
+		String key = this.resizer.getClass().getName() + this.textOverlays.get();
+		return "doge-" + DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8));
 	}
 
 	@Override
 	public Photo manipulate(Photo photo) throws IOException {
-		BufferedImage sourceImage = readImage(photo);
-		BufferedImage destinationImage = manipulate(sourceImage);
-		Photo resultPhoto = () -> {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-			ImageOutputStream ios = ImageIO.createImageOutputStream(outputStream);
-			ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
-			ImageWriteParam param = writer.getDefaultWriteParam();
-			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-			param.setCompressionQuality(0.85f);
-			writer.setOutput(ios);
-			writer.write(null, new IIOImage(destinationImage, null, null), param);
-			ImageIO.write(destinationImage, "jpeg", outputStream);
-			return new ByteArrayInputStream(outputStream.toByteArray());
-		};
-		return resultPhoto;
-	}
-
-	private BufferedImage readImage(Photo photo) throws IOException {
+		return manipulate(photo, DEFAULT_WIDTH).get(0);
+	}
+
+	@Override
+	public List<Photo> manipulate(Photo photo, int... widths) throws IOException {
+		Assert.isTrue(widths.length > 0, "Widths must not be empty");
+		int maxWidth = 0;
+		for (int width : widths) {
+			Assert.isTrue(width > 0, "Widths must be positive");
+			maxWidth = Math.max(maxWidth, width);
+		}
+		long start = System.nanoTime();
+		BufferedImage sourceImage = readImage(photo, maxWidth);
+		this.stageRecorder.record(Stage.DECODE, System.nanoTime() - start);
+		TextOverlay textOverlay = getRandomText();
+		List<Photo> photos = new ArrayList<>(widths.length);
+		for (int width : widths) {
+			photos.add(encode(manipulate(sourceImage, width, textOverlay)));
+		}
+		return photos;
+	}
+
+	BufferedImage readImage(Photo photo, int width) throws IOException {
+		try (InputStream inputStream = photo.getInputStream()) {
+			BufferedImage image = readSubsampledImage(inputStream, width);
+			if (image != null) {
+				return image;
+			}
+		}
+		catch (IOException ex) {
+			// Fallback to a full decode
+		}
 		try (InputStream inputStream = photo.getInputStream()) {
 			return ImageIO.read(inputStream);
 		}
 	}
 
-	private BufferedImage manipulate(BufferedImage sourceImage) {
-		double aspectRatio = sourceImage.getHeight() / (double) sourceImage.getWidth();
-		int height = (int) Math.floor(IMAGE_WIDTH * aspectRatio);
-		BufferedImage destinationImage = new BufferedImage(IMAGE_WIDTH, height,
-				BufferedImage.TYPE_INT_RGB);
-		render(sourceImage, destinationImage);
+	private BufferedImage readSubsampledImage(InputStream inputStream, int width)
+			throws IOException {
+		ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream);
+		if (imageInputStream == null) {
+			return null;
+		}
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+			if (!readers.hasNext()) {
+				return null;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(imageInputStream, true, true);
+				int subsampling = getSourceSubsampling(reader.getWidth(0), width);
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			}
+			finally {
+				reader.dispose();
+			}
+		}
+		finally {
+			imageInputStream.close();
+		}
+	}
+
+	/**
+	 * Return the source subsampling to use when decoding an image of the given width.
+	 * Images are never subsampled below twice the output width so that resizing still
+	 * has enough pixels to produce a smooth result.
+	 * @param sourceWidth the width of the source image
+	 * @param width the largest output width
+	 * @return the subsampling factor
+	 */
+	static int getSourceSubsampling(int sourceWidth, int width) {
+		return Math.max(1, sourceWidth / (width * 2));
+	}
+
+	BufferedImage manipulate(BufferedImage sourceImage, int width) {
+		return manipulate(sourceImage, width, getRandomText());
+	}
+
+	private BufferedImage manipulate(BufferedImage sourceImage, int width,
+			TextOverlay textOverlay) {
+		BufferedImage destinationImage = createDestinationImage(sourceImage, width);
+		render(sourceImage, destinationImage, textOverlay);
 		return destinationImage;
 	}
 
-	private void render(BufferedImage sourceImage, BufferedImage destinationImage) {
+	BufferedImage createDestinationImage(BufferedImage sourceImage, int width) {
+		double aspectRatio = sourceImage.getHeight() / (double) sourceImage.getWidth();
+		int height = Math.max(1, (int) Math.floor(width * aspectRatio));
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	private void render(BufferedImage sourceImage, BufferedImage destinationImage,
+			TextOverlay textOverlay) {
+		int bands = getRenderBands(destinationImage);
+		long start = System.nanoTime();
+		renderBands(destinationImage, bands, (y, height) -> this.resizer.resize(
+				sourceImage, destinationImage, y, height));
+		long resized = System.nanoTime();
+		this.stageRecorder.record(Stage.RESIZE, resized - start);
+		renderBands(destinationImage, bands, (y, height) -> renderOverlay(
+				destinationImage, textOverlay, y, height));
+		this.stageRecorder.record(Stage.OVERLAY, System.nanoTime() - resized);
+	}
+
+	private int getRenderBands(BufferedImage destinationImage) {
+		long pixels = (long) destinationImage.getWidth() * destinationImage.getHeight();
+		if (this.renderPool == null || pixels < this.parallelRenderThreshold) {
+			return 1;
+		}
+		return Math.min(this.renderPool.getParallelism(), destinationImage.getHeight());
+	}
+
+	private void renderBands(BufferedImage destinationImage, int bands,
+			BandRenderer renderer) {
+		if (bands > 1) {
+			this.renderPool.invoke(new BandTask(renderer, 0,
+					destinationImage.getHeight(), bands));
+		}
+		else {
+			renderer.render(0, destinationImage.getHeight());
+		}
+	}
+
+	private void renderOverlay(BufferedImage destinationImage, TextOverlay textOverlay,
+			int y, int height) {
 		Graphics2D destinationGraphics = destinationImage.createGraphics();
 		try {
 			setGraphicsHints(destinationGraphics);
-			renderBackground(sourceImage, destinationImage, destinationGraphics);
-			renderOverlay(destinationImage, destinationGraphics);
+			destinationGraphics.clipRect(0, y, destinationImage.getWidth(), height);
+			renderOverlay(destinationImage, destinationGraphics, textOverlay);
 		}
 		finally {
 			destinationGraphics.dispose();
 		}
 	}
 
-	private void renderBackground(BufferedImage sourceImage,
-			BufferedImage destinationImage, Graphics2D destinationGraphics) {
-		destinationGraphics.drawImage(sourceImage, 0, 0, IMAGE_WIDTH,
-				destinationImage.getHeight(), null);
+	/**
+	 * Render the text overlay, if any, and the doge logo. The logo is always drawn in
+	 * the bottom left corner, scaled in the same way as the text.
+	 */
+	private void renderOverlay(BufferedImage image, Graphics2D graphics,
+			TextOverlay textOverlay) {
+		if (textOverlay != null) {
+			textOverlay.render(image, graphics);
+		}
+		double scale = image.getWidth() / (double) DEFAULT_WIDTH;
+		int width = (int) Math.round(this.dogeLogo.getWidth() * scale);
+		int height = (int) Math.round(this.dogeLogo.getHeight() * scale);
+		graphics.drawImage(this.dogeLogo, 0, image.getHeight() - height, width, height,
+				null);
+	}
+
+	Photo encode(BufferedImage image) {
+		return this.encoder.encode(image, this.stageRecorder);
+	}
+
+	void renderBackground(BufferedImage sourceImage, BufferedImage destinationImage) {
+		this.resizer.resize(sourceImage, destinationImage);
 	}
 
-	private void renderOverlay(BufferedImage image, Graphics2D graphics) {
-		getRandomText().render(image, graphics);
-		int y = image.getHeight() - this.dogeLogo.getHeight();
-		graphics.drawImage(this.dogeLogo, 0, y, null);
+	void renderOverlay(BufferedImage image, Graphics2D graphics) {
+		renderOverlay(image, graphics, getRandomText());
 	}
 
 	private TextOverlay getRandomText() {
-		return this.textOverlays.get(this.random.nextInt(this.textOverlays.size()));
+		List<TextOverlay> textOverlays = this.textOverlays.get();
+		if (textOverlays.isEmpty()) {
+			return null;
+		}
+		return textOverlays.get(this.randomSource.get().nextInt(textOverlays.size()));
 	}
 
-	private void setGraphicsHints(Graphics2D graphics) {
+	static void setGraphicsHints(Graphics2D graphics) {
 		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
 				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
 		graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
@@ -157,9 +427,56 @@ public class DogePhotoManipulator implements PhotoManipulator {
 	}
 
 	/**
-	 * Text overlay
+	 * Renders a horizontal band of an image.
 	 */
-	private static class TextOverlay {
+	private interface BandRenderer {
+
+		void render(int y, int height);
+
+	}
+
+	/**
+	 * Task that splits a {@link BandRenderer} in two until there is one band per task.
+	 */
+	private static class BandTask extends RecursiveAction {
+
+		private final BandRenderer renderer;
+
+		private final int y;
+
+		private final int height;
+
+		private final int bands;
+
+		BandTask(BandRenderer renderer, int y, int height, int bands) {
+			this.renderer = renderer;
+			this.y = y;
+			this.height = height;
+			this.bands = bands;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.bands == 1) {
+				this.renderer.render(this.y, this.height);
+				return;
+			}
+			int bands = this.bands / 2;
+			int height = this.height * bands / this.bands;
+			invokeAll(new BandTask(this.renderer, this.y, height, bands), new BandTask(
+					this.renderer, this.y + height, this.height - height, this.bands
+							- bands));
+		}
+
+	}
+
+	/**
+	 * Text overlay. The text is pre-rendered into a transparent layer for each output
+	 * size so that glyphs are only outlined once, rendering is then just a matter of
+	 * compositing the layer. The overlay is designed for a 300 pixel wide image and is
+	 * scaled for other widths.
+	 */
+	public static class TextOverlay {
 
 		private final String very;
 
@@ -167,18 +484,86 @@ public class DogePhotoManipulator implements PhotoManipulator {
 
 		private final String such;
 
-		public TextOverlay(String very, String so, String such) {
+		private final Map<Long, BufferedImage> layers = new ConcurrentReferenceHashMap<>();
+
+		TextOverlay(String very, String so, String such) {
+			Assert.hasLength(very, "Very must not be empty");
+			Assert.hasLength(so, "So must not be empty");
+			Assert.hasLength(such, "Such must not be empty");
 			this.very = very;
 			this.so = so;
 			this.such = such;
 		}
 
-		public void render(BufferedImage image, Graphics2D g) {
-			double r = image.getHeight() / 448.0;
-			renderText(g, "wow", 32, Color.MAGENTA, 25, r * 43);
-			renderText(g, "very " + this.very, 29, Color.GREEN, 105, r * 115);
-			renderText(g, "so " + this.so, 20, Color.MAGENTA, 25, r * 330);
-			renderText(g, "such " + this.such, 30, Color.ORANGE, 125, r * 385);
+		public String getVery() {
+			return this.very;
+		}
+
+		public String getSo() {
+			return this.so;
+		}
+
+		public String getSuch() {
+			return this.such;
+		}
+
+		void render(BufferedImage image, Graphics2D g) {
+			g.drawImage(getLayer(image.getWidth(), image.getHeight()), 0, 0, null);
+		}
+
+		private BufferedImage getLayer(int width, int height) {
+			Long key = ((long) width << 32) | height;
+			BufferedImage layer = this.layers.get(key);
+			if (layer == null) {
+				layer = createLayer(width, height);
+				this.layers.put(key, layer);
+			}
+			return layer;
+		}
+
+		private BufferedImage createLayer(int width, int height) {
+			BufferedImage layer = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = layer.createGraphics();
+			try {
+				setGraphicsHints(g);
+				double scale = width / (double) DEFAULT_WIDTH;
+				g.scale(scale, scale);
+				height = (int) Math.round(height / scale);
+				double r = height / 448.0;
+				renderText(g, "wow", 32, Color.MAGENTA, 25, r * 43);
+				renderText(g, "very " + this.very, 29, Color.GREEN, 105, r * 115);
+				renderText(g, "so " + this.so, 20, Color.MAGENTA, 25, r * 330);
+				renderText(g, "such " + this.such, 30, Color.ORANGE, 125, r * 385);
+			}
+			finally {
+				g.dispose();
+			}
+			return layer;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (obj == null || getClass() != obj.getClass()) {
+				return false;
+			}
+			TextOverlay other = (TextOverlay) obj;
+			return this.very.equals(other.very) && this.so.equals(other.so)
+					&& this.such.equals(other.such);
+		}
+
+		@Override
+		public int hashCode() {
+			return (this.very.hashCode() * 31 + this.so.hashCode()) * 31
+					+ this.such.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "very " + this.very + ", so " + this.so + ", such " + this.such;
 		}
 
 		private void renderText(Graphics2D g, String text, int fontSize, Paint paint,
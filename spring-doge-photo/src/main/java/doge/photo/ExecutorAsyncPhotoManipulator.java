@@ -0,0 +1,71 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.util.Assert;
+
+/**
+ * {@link AsyncPhotoManipulator} that runs a blocking {@link PhotoManipulator} on an
+ * {@link Executor}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class ExecutorAsyncPhotoManipulator implements AsyncPhotoManipulator {
+
+	private final PhotoManipulator manipulator;
+
+	private final Executor executor;
+
+	public ExecutorAsyncPhotoManipulator(PhotoManipulator manipulator, Executor executor) {
+		Assert.notNull(manipulator, "Manipulator must not be null");
+		Assert.notNull(executor, "Executor must not be null");
+		this.manipulator = manipulator;
+		this.executor = executor;
+	}
+
+	@Override
+	public CompletableFuture<List<Photo>> manipulate(Photo photo, int... widths) {
+		int[] renditionWidths = widths.clone();
+		CompletableFuture<List<Photo>> result = new CompletableFuture<>();
+		try {
+			this.executor.execute(() -> {
+				try {
+					result.complete(this.manipulator.manipulate(photo, renditionWidths));
+				}
+				catch (Throwable ex) {
+					result.completeExceptionally(ex);
+				}
+			});
+		}
+		catch (RejectedExecutionException ex) {
+			result.completeExceptionally(ex);
+		}
+		return result;
+	}
+
+	@Override
+	public String getManipulationKey() {
+		return this.manipulator.getManipulationKey();
+	}
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+
+/**
+ * {@link ImageResizer} that draws the source image with a single bilinear
+ * {@link Graphics2D#drawImage drawImage} call.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class Graphics2DImageResizer implements ImageResizer {
+
+	@Override
+	public void resize(BufferedImage source, BufferedImage destination, int y,
+			int height) {
+		Graphics2D graphics = destination.createGraphics();
+		try {
+			graphics.clipRect(0, y, destination.getWidth(), height);
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+					RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			graphics.setRenderingHint(RenderingHints.KEY_RENDERING,
+					RenderingHints.VALUE_RENDER_QUALITY);
+			graphics.drawImage(source, 0, 0, destination.getWidth(),
+					destination.getHeight(), null);
+		}
+		finally {
+			graphics.dispose();
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Strategy used by {@link DogePhotoManipulator} to scale a source image to the size of
+ * the photo being rendered.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see Graphics2DImageResizer
+ * @see RasterImageResizer
+ */
+public interface ImageResizer {
+
+	/**
+	 * Resize the source image so that it fills the destination image.
+	 * @param source the source image
+	 * @param destination the destination image
+	 */
+	default void resize(BufferedImage source, BufferedImage destination) {
+		resize(source, destination, 0, destination.getHeight());
+	}
+
+	/**
+	 * Resize the source image into a horizontal band of the destination image. Pixels
+	 * outside of the band are left untouched so that separate bands of the same
+	 * destination may be resized concurrently.
+	 * @param source the source image
+	 * @param destination the destination image
+	 * @param y the first row of the band
+	 * @param height the height of the band
+	 */
+	void resize(BufferedImage source, BufferedImage destination, int y, int height);
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.springframework.util.Assert;
+
+import doge.photo.StageRecorder.Stage;
+
+/**
+ * Encodes images as JPEG {@link Photo}s. A photo that is {@link Photo#writeTo written}
+ * is encoded straight into the destination stream without holding the encoded bytes.
+ * The bytes are only held once the photo is read, after which it is not encoded again.
+ * {@link ImageWriter}s are reused from a bounded pool rather than being looked up for
+ * every image.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class JpegPhotoEncoder {
+
+	private static final float DEFAULT_QUALITY = 0.85f;
+
+	private final float quality;
+
+	private final BlockingQueue<ImageWriter> writers;
+
+	public JpegPhotoEncoder() {
+		this(DEFAULT_QUALITY, Runtime.getRuntime().availableProcessors());
+	}
+
+	public JpegPhotoEncoder(float quality, int poolSize) {
+		Assert.isTrue(quality >= 0 && quality <= 1, "Quality must be between 0 and 1");
+		Assert.isTrue(poolSize > 0, "PoolSize must be positive");
+		this.quality = quality;
+		this.writers = new ArrayBlockingQueue<>(poolSize);
+	}
+
+	/**
+	 * Encode the given image. Encoding is deferred until the photo is first read or
+	 * written. Once read the encoded bytes are held so that subsequent reads return the
+	 * same data.
+	 * @param image the image to encode
+	 * @return the encoded photo
+	 */
+	public Photo encode(BufferedImage image) {
+		return encode(image, StageRecorder.NONE);
+	}
+
+	/**
+	 * Encode the given image, recording the time spent encoding.
+	 * @param image the image to encode
+	 * @param stageRecorder the recorder for the {@link Stage#ENCODE encode} stage
+	 * @return the encoded photo
+	 * @see #encode(BufferedImage)
+	 */
+	public Photo encode(BufferedImage image, StageRecorder stageRecorder) {
+		Assert.notNull(image, "Image must not be null");
+		Assert.notNull(stageRecorder, "StageRecorder must not be null");
+		return new EncodedPhoto(image, stageRecorder);
+	}
+
+	private void write(BufferedImage image, OutputStream outputStream)
+			throws IOException {
+		ImageWriter writer = borrowWriter();
+		boolean reusable = false;
+		try (ImageOutputStream imageOutputStream = new MemoryCacheImageOutputStream(
+				outputStream)) {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(this.quality);
+			writer.setOutput(imageOutputStream);
+			writer.write(null, new IIOImage(image, null, null), param);
+			writer.reset();
+			reusable = true;
+		}
+		finally {
+			returnWriter(writer, reusable);
+		}
+	}
+
+	private ImageWriter borrowWriter() {
+		ImageWriter writer = this.writers.poll();
+		return (writer != null ? writer : ImageIO.getImageWritersByFormatName("jpeg")
+				.next());
+	}
+
+	private void returnWriter(ImageWriter writer, boolean reusable) {
+		if (!reusable || !this.writers.offer(writer)) {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Estimate the encoded size of an image so that the output buffer rarely needs to
+	 * grow. Photos typically compress to around two bits per pixel.
+	 */
+	private static int estimateEncodedSize(BufferedImage image) {
+		return 1024 + (image.getWidth() * image.getHeight()) / 4;
+	}
+
+	/**
+	 * {@link Photo} that encodes its image on use. Writes encode straight into the
+	 * destination stream. Once read the image is released, only the encoded bytes are
+	 * held.
+	 */
+	private class EncodedPhoto implements Photo {
+
+		private final StageRecorder stageRecorder;
+
+		private BufferedImage image;
+
+		private volatile EncodedBytes bytes;
+
+		public EncodedPhoto(BufferedImage image, StageRecorder stageRecorder) {
+			this.image = image;
+			this.stageRecorder = stageRecorder;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			EncodedBytes bytes = this.bytes;
+			return (bytes != null ? bytes : getBytes()).getInputStream();
+		}
+
+		@Override
+		public synchronized void writeTo(OutputStream outputStream) throws IOException {
+			if (this.bytes != null) {
+				this.bytes.writeTo(outputStream);
+			}
+			else {
+				encode(outputStream);
+			}
+		}
+
+		private synchronized EncodedBytes getBytes() throws IOException {
+			if (this.bytes == null) {
+				EncodedBytes bytes = new EncodedBytes(estimateEncodedSize(this.image));
+				encode(bytes);
+				this.bytes = bytes;
+				this.image = null;
+			}
+			return this.bytes;
+		}
+
+		private void encode(OutputStream outputStream) throws IOException {
+			long start = System.nanoTime();
+			write(this.image, outputStream);
+			this.stageRecorder.record(Stage.ENCODE, System.nanoTime() - start);
+		}
+
+	}
+
+	/**
+	 * {@link ByteArrayOutputStream} that can be read without copying its buffer.
+	 */
+	private static class EncodedBytes extends ByteArrayOutputStream {
+
+		public EncodedBytes(int size) {
+			super(size);
+		}
+
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(this.buf, 0, this.count);
+		}
+
+	}
+
+}
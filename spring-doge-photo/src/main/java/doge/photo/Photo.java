@@ -18,6 +18,9 @@ package doge.photo;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.springframework.util.StreamUtils;
 
 /**
  * Encapsulation of a photo.
@@ -34,4 +37,17 @@ public interface Photo {
 	 */
 	public InputStream getInputStream() throws IOException;
 
+	/**
+	 * Write the photo data as a JPEG to the given stream, which is not closed. Photos
+	 * that produce their data on demand may write it directly, without holding all of
+	 * it in memory.
+	 * @param outputStream the stream to write to
+	 * @throws IOException
+	 */
+	default void writeTo(OutputStream outputStream) throws IOException {
+		try (InputStream inputStream = getInputStream()) {
+			StreamUtils.copy(inputStream, outputStream);
+		}
+	}
+
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads information from the header of a {@link Photo} without decoding any pixels.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public final class PhotoHeader {
+
+	private PhotoHeader() {
+	}
+
+	/**
+	 * Read the dimensions of a photo from its header. Only the header is read so the
+	 * stream may contain just the start of a photo that is still being received.
+	 * @param inputStream the photo data, not closed by this method
+	 * @return the dimensions or {@code null} if they cannot be read from the available
+	 * data
+	 */
+	public static Dimension readDimensions(InputStream inputStream) {
+		try {
+			ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream);
+			if (imageInputStream == null) {
+				return null;
+			}
+			try {
+				return readDimensions(imageInputStream);
+			}
+			finally {
+				imageInputStream.close();
+			}
+		}
+		catch (IOException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	private static Dimension readDimensions(ImageInputStream imageInputStream)
+			throws IOException {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+		if (!readers.hasNext()) {
+			return null;
+		}
+		ImageReader reader = readers.next();
+		try {
+			reader.setInput(imageInputStream, true, true);
+			return new Dimension(reader.getWidth(0), reader.getHeight(0));
+		}
+		finally {
+			reader.dispose();
+		}
+	}
+
+}
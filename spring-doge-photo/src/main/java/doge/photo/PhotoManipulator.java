@@ -17,6 +17,7 @@
 package doge.photo;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Service to manipulate a {@link Photo} in some way.
@@ -34,4 +35,25 @@ public interface PhotoManipulator {
 	 */
 	Photo manipulate(Photo photo) throws IOException;
 
+	/**
+	 * Manipulates a photo, producing a rendition for each of the given widths. The
+	 * source photo is only read once and each rendition receives the same
+	 * manipulation.
+	 * @param photo the source photo
+	 * @param widths the widths of the renditions
+	 * @return the manipulated photos, in the same order as the widths
+	 * @throws IOException
+	 */
+	List<Photo> manipulate(Photo photo, int... widths) throws IOException;
+
+	/**
+	 * Return a key that identifies the manipulation currently applied. Manipulating the
+	 * same source photo with the same key gives an equivalent result, so results may be
+	 * shared.
+	 * @return the manipulation key
+	 */
+	default String getManipulationKey() {
+		return getClass().getName();
+	}
+
 }
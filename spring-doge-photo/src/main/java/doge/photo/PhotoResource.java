@@ -33,14 +33,26 @@ public class PhotoResource extends AbstractResource {
 
 	private final Photo photo;
 
+	private final long contentLength;
+
 	public PhotoResource(Photo photo) {
+		this(photo, -1);
+	}
+
+	/**
+	 * Create a new {@link PhotoResource} instance.
+	 * @param photo the photo
+	 * @param contentLength the length of the photo in bytes or {@code -1} if unknown
+	 */
+	public PhotoResource(Photo photo, long contentLength) {
 		Assert.notNull(photo, "Photo must not be null");
 		this.photo = photo;
+		this.contentLength = contentLength;
 	}
 
 	@Override
 	public String getDescription() {
-		return null;
+		return "Photo resource";
 	}
 
 	@Override
@@ -50,7 +62,7 @@ public class PhotoResource extends AbstractResource {
 
 	@Override
 	public long contentLength() throws IOException {
-		return -1;
+		return this.contentLength;
 	}
 
 }
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+import org.springframework.util.Assert;
+
+/**
+ * {@link ImageResizer} that works directly on the arrays backing the source and
+ * destination images. The source is first halved with a 2x2 box filter for as long as
+ * it is at least twice the destination size, the remaining reduction is then an area
+ * average. Every source pixel contributes to the result so large reductions do not
+ * alias the way a single bilinear draw does.
+ * <p>
+ * Sources of type {@code TYPE_INT_RGB}, {@code TYPE_3BYTE_BGR} and
+ * {@code TYPE_BYTE_GRAY} can be resized into a {@code TYPE_INT_RGB} destination, any
+ * other combination is passed to a fallback resizer. Working buffers are kept per
+ * thread and reused, so resizing does not allocate once they have grown to the largest
+ * image seen.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class RasterImageResizer implements ImageResizer {
+
+	private static final int WEIGHT_BITS = 8;
+
+	private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+	private static final int WEIGHT_HALF = WEIGHT_ONE >> 1;
+
+	private final ImageResizer fallback;
+
+	private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+	public RasterImageResizer() {
+		this(new Graphics2DImageResizer());
+	}
+
+	public RasterImageResizer(ImageResizer fallback) {
+		Assert.notNull(fallback, "Fallback must not be null");
+		this.fallback = fallback;
+	}
+
+	@Override
+	public void resize(BufferedImage source, BufferedImage destination, int y,
+			int height) {
+		if (!isSupported(source, destination)) {
+			this.fallback.resize(source, destination, y, height);
+			return;
+		}
+		Buffers buffers = this.buffers.get();
+		int width = source.getWidth();
+		int sourceHeight = source.getHeight();
+		int halvings = 0;
+		while (width >= destination.getWidth() * 2
+				&& sourceHeight >= destination.getHeight() * 2) {
+			width /= 2;
+			sourceHeight /= 2;
+			halvings++;
+		}
+		buffers.rows.compute(sourceHeight, destination.getHeight());
+		buffers.columns.compute(width, destination.getWidth());
+		int firstRow = buffers.rows.getFirst(y);
+		int rowCount = buffers.rows.getLast(y + height - 1) - firstRow + 1;
+		int[] pixels;
+		if (halvings > 0) {
+			pixels = halve(source, halvings, firstRow, rowCount, buffers);
+		}
+		else if (source.getType() == BufferedImage.TYPE_INT_RGB
+				&& getScanlineStride(source) == width) {
+			pixels = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+			firstRow = 0;
+		}
+		else {
+			pixels = read(source, firstRow, rowCount, buffers);
+		}
+		areaAverage(pixels, width, firstRow, destination, y, height, buffers);
+	}
+
+	private boolean isSupported(BufferedImage source, BufferedImage destination) {
+		int type = source.getType();
+		return (type == BufferedImage.TYPE_INT_RGB
+				|| type == BufferedImage.TYPE_3BYTE_BGR
+				|| type == BufferedImage.TYPE_BYTE_GRAY) && isUntranslated(source)
+				&& destination.getType() == BufferedImage.TYPE_INT_RGB
+				&& isUntranslated(destination);
+	}
+
+	private boolean isUntranslated(BufferedImage image) {
+		WritableRaster raster = image.getRaster();
+		return raster.getSampleModelTranslateX() == 0
+				&& raster.getSampleModelTranslateY() == 0
+				&& raster.getDataBuffer().getNumBanks() == 1
+				&& raster.getDataBuffer().getOffset() == 0;
+	}
+
+	/**
+	 * Halve the source image the given number of times, reading its backing array
+	 * directly. Only the source rows needed for the given rows of the result are read.
+	 */
+	private int[] halve(BufferedImage source, int halvings, int firstRow, int rowCount,
+			Buffers buffers) {
+		int width = source.getWidth() / 2;
+		int height = rowCount << (halvings - 1);
+		int[] pixels = buffers.pixels(width * height);
+		int stride = getScanlineStride(source);
+		DataBuffer dataBuffer = source.getRaster().getDataBuffer();
+		for (int y = 0; y < height; y++) {
+			int top = ((firstRow << halvings) + y * 2) * stride;
+			int offset = y * width;
+			if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+				int[] data = ((DataBufferInt) dataBuffer).getData();
+				halveRows(data, top, top + stride, width, pixels, offset);
+			}
+			else if (source.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+				byte[] data = ((DataBufferByte) dataBuffer).getData();
+				halveBgrRows(data, top, top + stride, width, pixels, offset);
+			}
+			else {
+				byte[] data = ((DataBufferByte) dataBuffer).getData();
+				halveGrayRows(data, top, top + stride, width, pixels, offset);
+			}
+		}
+		for (int i = 1; i < halvings; i++) {
+			halve(pixels, width, height);
+			width /= 2;
+			height /= 2;
+		}
+		return pixels;
+	}
+
+	/**
+	 * Halve pixels in place, each output pixel is written behind the ones still to be
+	 * read.
+	 */
+	private void halve(int[] pixels, int width, int height) {
+		int halfWidth = width / 2;
+		int halfHeight = height / 2;
+		for (int y = 0; y < halfHeight; y++) {
+			int top = y * 2 * width;
+			halveRows(pixels, top, top + width, halfWidth, pixels, y * halfWidth);
+		}
+	}
+
+	/**
+	 * Average 2x2 blocks of packed pixels, red and blue are summed together in a single
+	 * int as they cannot overflow into each other.
+	 */
+	private void halveRows(int[] source, int top, int bottom, int halfWidth,
+			int[] destination, int offset) {
+		for (int x = 0; x < halfWidth; x++) {
+			int a = source[top + x * 2];
+			int b = source[top + x * 2 + 1];
+			int c = source[bottom + x * 2];
+			int d = source[bottom + x * 2 + 1];
+			int redBlue = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF)
+					+ (d & 0xFF00FF) + 0x20002;
+			int green = (a & 0xFF00) + (b & 0xFF00) + (c & 0xFF00) + (d & 0xFF00)
+					+ 0x200;
+			destination[offset + x] = ((redBlue >> 2) & 0xFF00FF)
+					| ((green >> 2) & 0xFF00);
+		}
+	}
+
+	private void halveBgrRows(byte[] source, int top, int bottom, int halfWidth,
+			int[] destination, int offset) {
+		for (int x = 0; x < halfWidth; x++) {
+			int i = top + x * 6;
+			int j = bottom + x * 6;
+			int blue = (source[i] & 0xFF) + (source[i + 3] & 0xFF) + (source[j] & 0xFF)
+					+ (source[j + 3] & 0xFF) + 2;
+			int green = (source[i + 1] & 0xFF) + (source[i + 4] & 0xFF)
+					+ (source[j + 1] & 0xFF) + (source[j + 4] & 0xFF) + 2;
+			int red = (source[i + 2] & 0xFF) + (source[i + 5] & 0xFF)
+					+ (source[j + 2] & 0xFF) + (source[j + 5] & 0xFF) + 2;
+			destination[offset + x] = (red >> 2) << 16 | (green >> 2) << 8 | blue >> 2;
+		}
+	}
+
+	private void halveGrayRows(byte[] source, int top, int bottom, int halfWidth,
+			int[] destination, int offset) {
+		for (int x = 0; x < halfWidth; x++) {
+			int i = top + x * 2;
+			int j = bottom + x * 2;
+			int gray = (source[i] & 0xFF) + (source[i + 1] & 0xFF) + (source[j] & 0xFF)
+					+ (source[j + 1] & 0xFF) + 2;
+			destination[offset + x] = (gray >> 2) * 0x010101;
+		}
+	}
+
+	private int[] read(BufferedImage source, int firstRow, int rowCount,
+			Buffers buffers) {
+		int width = source.getWidth();
+		int[] pixels = buffers.pixels(width * rowCount);
+		for (int y = 0; y < rowCount; y++) {
+			readRow(source, firstRow + y, pixels, y * width);
+		}
+		return pixels;
+	}
+
+	/**
+	 * Read a row of the source image as packed RGB pixels.
+	 */
+	private void readRow(BufferedImage source, int y, int[] row, int offset) {
+		int width = source.getWidth();
+		int i = y * getScanlineStride(source);
+		if (source.getType() == BufferedImage.TYPE_INT_RGB) {
+			int[] data = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+			System.arraycopy(data, i, row, offset, width);
+			return;
+		}
+		byte[] data = ((DataBufferByte) source.getRaster().getDataBuffer()).getData();
+		if (source.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+			for (int x = 0; x < width; x++) {
+				row[offset + x] = (data[i++] & 0xFF) * 0x010101;
+			}
+			return;
+		}
+		for (int x = 0; x < width; x++) {
+			row[offset + x] = (data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8
+					| (data[i + 2] & 0xFF) << 16;
+			i += 3;
+		}
+	}
+
+	private int getScanlineStride(BufferedImage image) {
+		Object sampleModel = image.getRaster().getSampleModel();
+		if (sampleModel instanceof SinglePixelPackedSampleModel) {
+			return ((SinglePixelPackedSampleModel) sampleModel).getScanlineStride();
+		}
+		return ((ComponentSampleModel) sampleModel).getScanlineStride();
+	}
+
+	/**
+	 * Scale pixels into a band of the destination, first down each column and then
+	 * across each row. The column pass works on whole rows at a time so that its loops
+	 * can be vectorized by the JIT.
+	 */
+	private void areaAverage(int[] pixels, int width, int firstRow,
+			BufferedImage destination, int y, int height, Buffers buffers) {
+		Taps rows = buffers.rows;
+		Taps columns = buffers.columns;
+		int[] redBlue = buffers.redBlue(width);
+		int[] green = buffers.green(width);
+		int[] scaledRow = buffers.scaledRow(width);
+		int[] data = ((DataBufferInt) destination.getRaster().getDataBuffer()).getData();
+		int stride = getScanlineStride(destination);
+		for (int d = y; d < y + height; d++) {
+			Arrays.fill(redBlue, 0, width, 0);
+			Arrays.fill(green, 0, width, 0);
+			for (int t = d * rows.count; t < (d + 1) * rows.count; t++) {
+				int row = (rows.indexes[t] - firstRow) * width;
+				int weight = rows.weights[t];
+				for (int x = 0; x < width; x++) {
+					int pixel = pixels[row + x];
+					redBlue[x] += (pixel & 0xFF00FF) * weight;
+					green[x] += (pixel & 0xFF00) * weight;
+				}
+			}
+			for (int x = 0; x < width; x++) {
+				scaledRow[x] = pack(redBlue[x], green[x]);
+			}
+			int offset = d * stride;
+			for (int x = 0; x < destination.getWidth(); x++) {
+				int scaledRedBlue = 0;
+				int scaledGreen = 0;
+				for (int t = x * columns.count; t < (x + 1) * columns.count; t++) {
+					int pixel = scaledRow[columns.indexes[t]];
+					int weight = columns.weights[t];
+					scaledRedBlue += (pixel & 0xFF00FF) * weight;
+					scaledGreen += (pixel & 0xFF00) * weight;
+				}
+				data[offset + x] = pack(scaledRedBlue, scaledGreen);
+			}
+		}
+	}
+
+	/**
+	 * Pack red and blue weighted together and green, weights are in
+	 * {@link #WEIGHT_BITS} bit fixed point so that neither can overflow.
+	 */
+	private int pack(int redBlue, int green) {
+		return ((redBlue + WEIGHT_HALF * 0x010001) >>> WEIGHT_BITS & 0xFF00FF)
+				| ((green + (WEIGHT_HALF << 8)) >>> WEIGHT_BITS & 0xFF00);
+	}
+
+	/**
+	 * Source indexes and weights contributing to each destination index along one
+	 * axis. Weights are the fraction of the destination index covered by a source index.
+	 */
+	private static class Taps {
+
+		private int count;
+
+		private int[] indexes = new int[0];
+
+		private int[] weights = new int[0];
+
+		/**
+		 * Compute the taps. Indexes past the end of the source are clamped and given no
+		 * weight, and the weights of each destination index are adjusted to add up to
+		 * exactly {@link #WEIGHT_ONE}.
+		 */
+		public void compute(int sourceSize, int destinationSize) {
+			double scale = sourceSize / (double) destinationSize;
+			this.count = (int) Math.ceil(scale) + 1;
+			this.indexes = Buffers.ensure(this.indexes, destinationSize * this.count);
+			this.weights = Buffers.ensure(this.weights, destinationSize * this.count);
+			for (int d = 0; d < destinationSize; d++) {
+				double start = d * scale;
+				double end = Math.min(sourceSize, start + scale);
+				int first = (int) start;
+				int total = 0;
+				int largest = d * this.count;
+				for (int t = d * this.count; t < (d + 1) * this.count; t++) {
+					int s = first + t - d * this.count;
+					double covered = Math.min(end, s + 1) - Math.max(start, s);
+					int weight = (covered > 0 ? (int) Math.round(covered / scale
+							* WEIGHT_ONE) : 0);
+					this.indexes[t] = Math.min(s, sourceSize - 1);
+					this.weights[t] = weight;
+					total += weight;
+					if (weight > this.weights[largest]) {
+						largest = t;
+					}
+				}
+				this.weights[largest] += WEIGHT_ONE - total;
+			}
+		}
+
+		public int getFirst(int destinationIndex) {
+			return this.indexes[destinationIndex * this.count];
+		}
+
+		public int getLast(int destinationIndex) {
+			return this.indexes[(destinationIndex + 1) * this.count - 1];
+		}
+
+	}
+
+	/**
+	 * Working buffers for a single thread, grown as required.
+	 */
+	private static class Buffers {
+
+		private final Taps rows = new Taps();
+
+		private final Taps columns = new Taps();
+
+		private int[] pixels = new int[0];
+
+		private int[] redBlue = new int[0];
+
+		private int[] green = new int[0];
+
+		private int[] scaledRow = new int[0];
+
+		public int[] pixels(int size) {
+			return (this.pixels = ensure(this.pixels, size));
+		}
+
+		public int[] redBlue(int size) {
+			return (this.redBlue = ensure(this.redBlue, size));
+		}
+
+		public int[] green(int size) {
+			return (this.green = ensure(this.green, size));
+		}
+
+		public int[] scaledRow(int size) {
+			return (this.scaledRow = ensure(this.scaledRow, size));
+		}
+
+		private static int[] ensure(int[] buffer, int size) {
+			return (buffer.length >= size ? buffer : new int[size]);
+		}
+
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+/**
+ * Callback used by {@link DogePhotoManipulator} to record how long each stage of a
+ * manipulation takes. Implementations are called on the manipulating thread so must be
+ * cheap and thread-safe.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public interface StageRecorder {
+
+	/**
+	 * A {@link StageRecorder} that ignores all stages.
+	 */
+	StageRecorder NONE = (stage, nanos) -> {
+	};
+
+	/**
+	 * Record a completed stage.
+	 * @param stage the stage
+	 * @param nanos the time taken in nanoseconds
+	 */
+	void record(Stage stage, long nanos);
+
+	/**
+	 * The stages of a manipulation.
+	 */
+	enum Stage {
+
+		/**
+		 * Decoding the source photo.
+		 */
+		DECODE,
+
+		/**
+		 * Resizing the source photo to a rendition width.
+		 */
+		RESIZE,
+
+		/**
+		 * Compositing the text overlay onto a rendition.
+		 */
+		OVERLAY,
+
+		/**
+		 * Encoding a rendition. Renditions are encoded when they are first read or
+		 * written, so this includes any time spent writing to the destination.
+		 */
+		ENCODE
+
+	}
+
+}
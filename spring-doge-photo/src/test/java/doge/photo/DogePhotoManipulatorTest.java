@@ -16,14 +16,28 @@
 
 package doge.photo;
 
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.util.FileCopyUtils;
 
+import doge.photo.DogePhotoManipulator.TextOverlay;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
 /**
  * Tests for {@link DogePhotoManipulator}.
  *
@@ -56,4 +70,111 @@ public class DogePhotoManipulatorTest {
 		FileCopyUtils.copy(manipulated.getInputStream(), new FileOutputStream(this.file));
 	}
 
+	@Test
+	public void readImageSubsamplesLargeSources() throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB), "jpeg",
+				outputStream);
+		byte[] bytes = outputStream.toByteArray();
+		Photo photo = () -> new ByteArrayInputStream(bytes);
+		BufferedImage image = new DogePhotoManipulator().readImage(photo, 300);
+		assertThat(image.getWidth(), equalTo(667));
+		assertThat(image.getHeight(), equalTo(500));
+	}
+
+	@Test
+	public void readImageDoesNotSubsampleSmallSources() throws Exception {
+		Photo photo = () -> new ClassPathResource("thehoff.jpg").getInputStream();
+		BufferedImage image = new DogePhotoManipulator().readImage(photo, 300);
+		assertThat(image.getWidth(), equalTo(669));
+		assertThat(image.getHeight(), equalTo(1000));
+	}
+
+	@Test
+	public void manipulateRenditions() throws Exception {
+		Photo photo = () -> new ClassPathResource("thehoff.jpg").getInputStream();
+		List<Photo> manipulated = this.manipulator.manipulate(photo, 150, 800);
+		assertThat(manipulated.size(), equalTo(2));
+		BufferedImage thumbnail = ImageIO.read(manipulated.get(0).getInputStream());
+		assertThat(thumbnail.getWidth(), equalTo(150));
+		assertThat(thumbnail.getHeight(), equalTo(224));
+		BufferedImage large = ImageIO.read(manipulated.get(1).getInputStream());
+		assertThat(large.getWidth(), equalTo(800));
+		assertThat(large.getHeight(), equalTo(1195));
+	}
+
+	@Test
+	public void addAndRemoveTextOverlays() throws Exception {
+		DogePhotoManipulator manipulator = new DogePhotoManipulator();
+		assertThat(manipulator.addTextOverlay("very", "so", "such"), equalTo(true));
+		assertThat(manipulator.addTextOverlay("very", "so", "such"), equalTo(false));
+		List<TextOverlay> textOverlays = manipulator.getTextOverlays();
+		assertThat(manipulator.removeTextOverlay("very", "so", "such"), equalTo(true));
+		assertThat(manipulator.removeTextOverlay("very", "so", "such"), equalTo(false));
+		assertThat(textOverlays.size(), equalTo(1));
+		assertThat(manipulator.getTextOverlays().size(), equalTo(0));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void addTextOverlayBeyondMaximum() throws Exception {
+		DogePhotoManipulator manipulator = new DogePhotoManipulator();
+		manipulator.setMaxTextOverlays(1);
+		manipulator.addTextOverlay("very1", "so1", "such1");
+		assertThat(manipulator.addTextOverlay("very1", "so1", "such1"), equalTo(false));
+		manipulator.addTextOverlay("very2", "so2", "such2");
+	}
+
+	@Test
+	public void manipulationKeyChangesWithTextOverlays() throws Exception {
+		DogePhotoManipulator manipulator = new DogePhotoManipulator();
+		String key = manipulator.getManipulationKey();
+		manipulator.addTextOverlay("very", "so", "such");
+		assertThat(manipulator.getManipulationKey(), not(equalTo(key)));
+		manipulator.removeTextOverlay("very", "so", "such");
+		assertThat(manipulator.getManipulationKey(), equalTo(key));
+	}
+
+	@Test
+	public void renderInParallelBands() throws Exception {
+		Photo photo = () -> new ClassPathResource("thehoff.jpg").getInputStream();
+		for (ImageResizer resizer : new ImageResizer[] { new Graphics2DImageResizer(),
+				new RasterImageResizer() }) {
+			DogePhotoManipulator manipulator = new DogePhotoManipulator();
+			manipulator.addTextOverlay("very", "so", "such");
+			manipulator.setResizer(resizer);
+			BufferedImage source = manipulator.readImage(photo, 300);
+			BufferedImage expected = manipulator.manipulate(source, 300);
+			manipulator.setRenderPool(new ForkJoinPool(3));
+			manipulator.setParallelRenderThreshold(0);
+			BufferedImage actual = manipulator.manipulate(source, 300);
+			for (int y = 0; y < expected.getHeight(); y++) {
+				for (int x = 0; x < expected.getWidth(); x++) {
+					assertThat(actual.getRGB(x, y), equalTo(expected.getRGB(x, y)));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void manipulateWithoutTextOverlays() throws Exception {
+		Photo photo = () -> new ClassPathResource("thehoff.jpg").getInputStream();
+		Photo manipulated = new DogePhotoManipulator().manipulate(photo);
+		assertThat(ImageIO.read(manipulated.getInputStream()).getWidth(), equalTo(300));
+	}
+
+	@Test
+	public void drawLogoWithoutTextOverlays() throws Exception {
+		BufferedImage logo = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 10; x++) {
+				logo.setRGB(x, y, Color.RED.getRGB());
+			}
+		}
+		BufferedImage source = new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB);
+		DogePhotoManipulator manipulator = new DogePhotoManipulator(logo);
+		BufferedImage manipulated = manipulator.manipulate(source, 300);
+		assertThat(manipulated.getRGB(1, 298), equalTo(Color.RED.getRGB()));
+		assertThat(manipulated.getRGB(1, 1), equalTo(Color.BLACK.getRGB()));
+	}
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link JpegPhotoEncoder}.
+ *
+ * @author Josh Long
+ */
+public class JpegPhotoEncoderTest {
+
+	private final JpegPhotoEncoder encoder = new JpegPhotoEncoder(0.85f, 1);
+
+	@Test
+	public void encodesSingleJpeg() throws Exception {
+		Photo photo = this.encoder.encode(new BufferedImage(300, 200,
+				BufferedImage.TYPE_INT_RGB));
+		byte[] bytes = StreamUtils.copyToByteArray(photo.getInputStream());
+		int endOfImageMarkers = 0;
+		for (int i = 1; i < bytes.length; i++) {
+			if (bytes[i - 1] == (byte) 0xFF && bytes[i] == (byte) 0xD9) {
+				endOfImageMarkers++;
+			}
+		}
+		assertThat(endOfImageMarkers, equalTo(1));
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+		assertThat(image.getWidth(), equalTo(300));
+		assertThat(image.getHeight(), equalTo(200));
+	}
+
+	@Test
+	public void readsSameBytesEachTime() throws Exception {
+		Photo photo = this.encoder.encode(new BufferedImage(300, 200,
+				BufferedImage.TYPE_INT_RGB));
+		byte[] first = StreamUtils.copyToByteArray(photo.getInputStream());
+		byte[] second = StreamUtils.copyToByteArray(photo.getInputStream());
+		assertArrayEquals(first, second);
+	}
+
+	@Test
+	public void writesWithoutHoldingBytesAndReadsWithSingleEncode() throws Exception {
+		AtomicInteger encodes = new AtomicInteger();
+		BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+		Photo photo = this.encoder.encode(image, (stage, nanos) -> encodes
+				.incrementAndGet());
+		ByteArrayOutputStream written = new ByteArrayOutputStream();
+		photo.writeTo(written);
+		assertThat(encodes.get(), equalTo(1));
+		byte[] read = StreamUtils.copyToByteArray(photo.getInputStream());
+		assertArrayEquals(read, written.toByteArray());
+		assertThat(encodes.get(), equalTo(2));
+		written.reset();
+		photo.writeTo(written);
+		assertArrayEquals(read, StreamUtils.copyToByteArray(photo.getInputStream()));
+		assertArrayEquals(read, written.toByteArray());
+		assertThat(encodes.get(), equalTo(2));
+	}
+
+	@Test
+	public void reusesPooledWriter() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			Photo photo = this.encoder.encode(new BufferedImage(30, 20,
+					BufferedImage.TYPE_INT_RGB));
+			BufferedImage image = ImageIO.read(photo.getInputStream());
+			assertThat(image.getWidth(), equalTo(30));
+		}
+	}
+
+}
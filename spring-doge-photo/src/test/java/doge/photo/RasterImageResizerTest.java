@@ -0,0 +1,114 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.photo;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link RasterImageResizer}.
+ *
+ * @author Josh Long
+ */
+public class RasterImageResizerTest {
+
+	private final RasterImageResizer resizer = new RasterImageResizer();
+
+	@Test
+	public void preservesSolidColor() throws Exception {
+		for (int type : new int[] { BufferedImage.TYPE_INT_RGB,
+				BufferedImage.TYPE_3BYTE_BGR }) {
+			BufferedImage source = createImage(1600, 1200, type, new Color(10, 120, 250),
+					new Color(10, 120, 250));
+			BufferedImage destination = resize(source, 300, 225);
+			assertThat(destination.getRGB(0, 0) & 0xFFFFFF, equalTo(0x0A78FA));
+			assertThat(destination.getRGB(299, 224) & 0xFFFFFF, equalTo(0x0A78FA));
+		}
+	}
+
+	@Test
+	public void keepsChannelOrder() throws Exception {
+		for (int type : new int[] { BufferedImage.TYPE_INT_RGB,
+				BufferedImage.TYPE_3BYTE_BGR }) {
+			BufferedImage source = createImage(1000, 700, type, Color.RED, Color.BLUE);
+			BufferedImage destination = resize(source, 300, 210);
+			assertThat(destination.getRGB(10, 100) & 0xFFFFFF, equalTo(0xFF0000));
+			assertThat(destination.getRGB(290, 100) & 0xFFFFFF, equalTo(0x0000FF));
+		}
+	}
+
+	@Test
+	public void averagesFineDetail() throws Exception {
+		BufferedImage source = new BufferedImage(1203, 901, BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < source.getHeight(); y++) {
+			for (int x = 0; x < source.getWidth(); x++) {
+				source.getRaster().setSample(x, y, 0, (x + y) % 2 == 0 ? 255 : 0);
+			}
+		}
+		BufferedImage destination = resize(source, 300, 224);
+		for (int y = 0; y < destination.getHeight(); y++) {
+			for (int x = 0; x < destination.getWidth(); x++) {
+				int blue = destination.getRGB(x, y) & 0xFF;
+				assertThat(Math.abs(blue - 128), lessThanOrEqualTo(4));
+			}
+		}
+	}
+
+	@Test
+	public void fallsBackForUnsupportedType() throws Exception {
+		AtomicBoolean called = new AtomicBoolean();
+		RasterImageResizer resizer = new RasterImageResizer((source, destination, y,
+				height) -> {
+			called.set(true);
+		});
+		BufferedImage source = new BufferedImage(600, 400, BufferedImage.TYPE_INT_ARGB);
+		resizer.resize(source, new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB));
+		assertThat(called.get(), equalTo(true));
+	}
+
+	private BufferedImage resize(BufferedImage source, int width, int height) {
+		BufferedImage destination = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		this.resizer.resize(source, destination);
+		return destination;
+	}
+
+	private BufferedImage createImage(int width, int height, int type, Color left,
+			Color right) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		Graphics2D graphics = image.createGraphics();
+		try {
+			graphics.setColor(left);
+			graphics.fillRect(0, 0, width / 2, height);
+			graphics.setColor(right);
+			graphics.fillRect(width / 2, 0, width - width / 2, height);
+		}
+		finally {
+			graphics.dispose();
+		}
+		return image;
+	}
+
+}
@@ -36,7 +36,8 @@ define([ 'require', 'angular' ], function (require, angular) {
 			$scope.uploads = [];
 			$scope.size = 0;
 
-			require([ 'sockjs', 'stomp' ], function (sockjs, stomp) {
+			// the server drops subscribers that fall behind, so reconnect when closed
+			var connect = function () {
 				var socket = new SockJS('/doge');
 				var client = Stomp.over(socket);
 				client.connect({}, function (frame) {
@@ -49,11 +50,19 @@ define([ 'require', 'angular' ], function (require, angular) {
 					});
 				}, function (error) {
 					console.log("STOMP protocol error " + error);
+					setTimeout(connect, 5000);
 				});
+			};
+
+			require([ 'sockjs', 'stomp' ], function (sockjs, stomp) {
+				connect();
 			});
 
 			$scope.onDoge = function (msg) {
-				$scope.uploads.unshift(msg);
+				msg.uploads.forEach(function (upload) {
+					upload.uploadDate = msg.uploadDate;
+					$scope.uploads.unshift(upload);
+				});
 				$scope.size = $scope.uploads.length
 			};
 
@@ -21,21 +21,53 @@ import com.codahale.metrics.graphite.Graphite;
 import com.codahale.metrics.graphite.GraphiteReporter;
 import doge.domain.User;
 import doge.domain.UserRepository;
+import doge.photo.AsyncPhotoManipulator;
 import doge.photo.DogePhotoManipulator;
+import doge.photo.ExecutorAsyncPhotoManipulator;
+import doge.photo.PhotoManipulator;
+import doge.photo.RasterImageResizer;
+import doge.service.DirectPhotoByteStore;
+import doge.service.FileSystemPhotoStore;
+import doge.service.GridFsPhotoStore;
+import doge.service.HeapPhotoByteStore;
+import doge.service.LocalUploadEventRelay;
+import doge.service.MongoUploadEventRelay;
+import doge.service.PhotoByteStore;
+import doge.service.PhotoStore;
+import doge.service.PipelineMetrics;
+import doge.service.UploadEventRelay;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.ViewControllerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
 import org.springframework.web.socket.config.annotation.AbstractWebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -47,6 +79,7 @@ import java.util.concurrent.TimeUnit;
 @Configuration
 @ComponentScan
 @EnableAutoConfiguration
+@EnableScheduling
 public class Application {
 
     @Bean
@@ -61,8 +94,21 @@ public class Application {
     }
 
     @Bean
-    DogePhotoManipulator dogePhotoManipulator() {
+    DogePhotoManipulator dogePhotoManipulator(
+            @Value("${doge.manipulation.resizer:graphics2d}") String resizer,
+            @Value("${doge.manipulation.parallel-threshold:500000}") long threshold,
+            @Value("${doge.overlays.max-count:32}") int maxOverlays,
+            PipelineMetrics metrics) {
         DogePhotoManipulator dogePhotoManipulator = new DogePhotoManipulator();
+        dogePhotoManipulator.setStageRecorder(metrics);
+        dogePhotoManipulator.setMaxTextOverlays(maxOverlays);
+        if ("raster".equals(resizer)) {
+            dogePhotoManipulator.setResizer(new RasterImageResizer());
+        }
+        if (threshold > 0) {
+            dogePhotoManipulator.setRenderPool(ForkJoinPool.commonPool());
+            dogePhotoManipulator.setParallelRenderThreshold(threshold);
+        }
         dogePhotoManipulator.addTextOverlay("pivotal", "abstractfactorybean", "java");
         dogePhotoManipulator.addTextOverlay("spring", "annotations", "boot");
         dogePhotoManipulator.addTextOverlay("code", "semicolonfree", "groovy");
@@ -89,11 +135,205 @@ public class Application {
             registry.addEndpoint("/doge").withSockJS();
         }
 
+        @Value("${doge.websocket.send-buffer-size:16}")
+        private int sendBufferSize;
+
+        @Value("${doge.websocket.send-time-limit-millis:10000}")
+        private long sendTimeLimit;
+
+        @Value("${doge.websocket.send-pool-size:8}")
+        private int sendPoolSize;
+
         @Override
         public void configureMessageBroker(MessageBrokerRegistry registry) {
             registry.enableSimpleBroker("/topic/");
         }
 
+        // slow subscribers get a bounded buffer and are dropped when they fall behind
+        @Override
+        public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+            Executor executor = webSocketSendExecutor();
+            registration.addDecoratorFactory((handler) ->
+                    new DroppingWebSocketHandlerDecorator(handler, executor,
+                            this.sendBufferSize, this.sendTimeLimit));
+        }
+
+        @Bean
+        public ThreadPoolTaskExecutor webSocketSendExecutor() {
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setThreadNamePrefix("doge-ws-send-");
+            executor.setCorePoolSize(this.sendPoolSize);
+            executor.setMaxPoolSize(this.sendPoolSize);
+            return executor;
+        }
+
+    }
+
+    @Configuration
+    static class EventsConfiguration {
+
+        // 'mongo' relays upload events to every node through a capped collection
+        @Bean
+        public UploadEventRelay uploadEventRelay(MongoTemplate mongoTemplate,
+                @Value("${doge.events.relay:local}") String relay,
+                @Value("${doge.events.mongo.collection:uploadEvents}") String collection,
+                @Value("${doge.events.mongo.max-bytes:1048576}") long maxBytes) {
+
+            if ("mongo".equals(relay)) {
+                return new MongoUploadEventRelay(mongoTemplate, collection, maxBytes);
+            }
+            return new LocalUploadEventRelay();
+        }
+    }
+
+    @Configuration
+    static class UploadConfiguration {
+
+        private static final Log logger = LogFactory.getLog(UploadConfiguration.class);
+
+        // blocking I/O runs on virtual threads when enabled and supported
+        @Value("${doge.threads.virtual:false}")
+        private boolean virtualThreads;
+
+        // virtual threads are never pooled, concurrency is bounded with permits instead
+        @Bean
+        public AsyncTaskExecutor dogeUploadExecutor(
+                @Value("${doge.upload.pool-size:4}") int poolSize,
+                @Value("${doge.upload.queue-capacity:100}") int queueCapacity) {
+
+            if (useVirtualThreads()) {
+                return VirtualThreads.boundedExecutor("doge-upload-", poolSize);
+            }
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setThreadNamePrefix("doge-upload-");
+            executor.setCorePoolSize(poolSize);
+            executor.setMaxPoolSize(poolSize);
+            executor.setQueueCapacity(queueCapacity);
+            executor.setWaitForTasksToCompleteOnShutdown(true);
+            return executor;
+        }
+
+        // bulk imports have their own pool, the request thread helps out when it is full
+        @Bean
+        public AsyncTaskExecutor dogeImportExecutor(
+                @Value("${doge.import.pool-size:4}") int poolSize,
+                @Value("${doge.import.queue-capacity:16}") int queueCapacity) {
+
+            if (useVirtualThreads()) {
+                return VirtualThreads.boundedExecutor("doge-import-", poolSize);
+            }
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setThreadNamePrefix("doge-import-");
+            executor.setCorePoolSize(poolSize);
+            executor.setMaxPoolSize(poolSize);
+            executor.setQueueCapacity(queueCapacity);
+            executor.setRejectedExecutionHandler(
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            return executor;
+        }
+
+        @Bean
+        public AsyncTaskExecutor photoIoExecutor(
+                @Value("${doge.io.pool-size:16}") int poolSize) {
+
+            if (useVirtualThreads()) {
+                return VirtualThreads.boundedExecutor("doge-io-", poolSize);
+            }
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setThreadNamePrefix("doge-io-");
+            executor.setCorePoolSize(poolSize);
+            executor.setMaxPoolSize(poolSize);
+            return executor;
+        }
+
+        @Bean
+        public EmbeddedServletContainerCustomizer virtualThreadsContainerCustomizer() {
+            return (container) -> {
+                if (useVirtualThreads()
+                        && container instanceof TomcatEmbeddedServletContainerFactory) {
+                    ((TomcatEmbeddedServletContainerFactory) container)
+                            .addConnectorCustomizers((connector) -> {
+                                ProtocolHandler handler = connector.getProtocolHandler();
+                                if (handler instanceof AbstractProtocol) {
+                                    ((AbstractProtocol<?>) handler).setExecutor(
+                                            VirtualThreads.executor("doge-http-"));
+                                }
+                            });
+                }
+            };
+        }
+
+        private boolean useVirtualThreads() {
+            if (this.virtualThreads && !VirtualThreads.isSupported()) {
+                logger.warn("Virtual threads are not supported by this JVM, "
+                        + "using platform threads");
+                this.virtualThreads = false;
+            }
+            return this.virtualThreads;
+        }
+
+        // CPU bound work always runs on platform threads, one per core by default
+        @Bean
+        public ThreadPoolTaskExecutor photoManipulationExecutor(
+                @Value("${doge.manipulation.pool-size:0}") int poolSize) {
+
+            if (poolSize <= 0) {
+                poolSize = Runtime.getRuntime().availableProcessors();
+            }
+            ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+            executor.setThreadNamePrefix("doge-manipulate-");
+            executor.setCorePoolSize(poolSize);
+            executor.setMaxPoolSize(poolSize);
+            return executor;
+        }
+
+        @Bean
+        public AsyncPhotoManipulator asyncPhotoManipulator(PhotoManipulator manipulator,
+                @Qualifier("photoManipulationExecutor") Executor executor) {
+
+            return new ExecutorAsyncPhotoManipulator(manipulator, executor);
+        }
+
+        // streaming responses copy from the photo store on the I/O executor
+        @Bean
+        public WebMvcConfigurerAdapter mvcAsyncConfigurer(
+                @Qualifier("photoIoExecutor") AsyncTaskExecutor ioExecutor) {
+
+            return new WebMvcConfigurerAdapter() {
+                @Override
+                public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                    configurer.setTaskExecutor(ioExecutor);
+                }
+            };
+        }
+    }
+
+    @Configuration
+    static class StorageConfiguration {
+
+        // 'filesystem' keeps photos in a local directory, for single node deployments
+        @Bean
+        public PhotoStore photoStore(MongoDbFactory mongoDbFactory,
+                @Value("${doge.photos.store:gridfs}") String store,
+                @Value("${doge.photos.directory:photos}") String directory) {
+
+            if ("filesystem".equals(store)) {
+                return new FileSystemPhotoStore(new File(directory));
+            }
+            return new GridFsPhotoStore(mongoDbFactory);
+        }
+    }
+
+    @Configuration
+    static class CacheConfiguration {
+
+        @Bean
+        public PhotoByteStore photoByteStore(
+                @Value("${doge.cache.off-heap:false}") boolean offHeap,
+                @Value("${doge.cache.max-bytes:67108864}") long maxBytes) {
+
+            return (offHeap ? new DirectPhotoByteStore(maxBytes) : new HeapPhotoByteStore());
+        }
     }
 
     @Configuration
@@ -114,6 +354,11 @@ public class Application {
             reporter.start(2, TimeUnit.SECONDS);
             return reporter;
         }
+
+        @Bean
+        public PipelineMetricsEndpoint pipelineMetricsEndpoint(MetricRegistry registry) {
+            return new PipelineMetricsEndpoint(registry);
+        }
     }
 
     public static void main(String[] args) {
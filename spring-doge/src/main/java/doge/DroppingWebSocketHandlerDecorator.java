@@ -0,0 +1,208 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+/**
+ * {@link WebSocketHandlerDecorator} that gives each session a bounded send buffer. Sends
+ * never block the broker, they are queued and written to the client on the given
+ * {@link Executor}. Queued frames are never dropped individually, since each
+ * {@code MESSAGE} frame carries a batch of uploads that later frames do not repeat.
+ * Instead a slow client whose buffer is full, or whose current send has taken longer
+ * than the send time limit, is dropped by closing its session so that it can
+ * reconnect. The session is closed by the task draining the buffer, if there is one, so
+ * that it is never closed while a message is being sent.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+class DroppingWebSocketHandlerDecorator extends WebSocketHandlerDecorator {
+
+	private static final Log logger = LogFactory
+			.getLog(DroppingWebSocketHandlerDecorator.class);
+
+	private final Executor executor;
+
+	private final int bufferSizeLimit;
+
+	private final long sendTimeLimit;
+
+	DroppingWebSocketHandlerDecorator(WebSocketHandler delegate, Executor executor,
+			int bufferSizeLimit, long sendTimeLimit) {
+		super(delegate);
+		this.executor = executor;
+		this.bufferSizeLimit = bufferSizeLimit;
+		this.sendTimeLimit = sendTimeLimit;
+	}
+
+	@Override
+	public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+		super.afterConnectionEstablished(new DroppingSessionDecorator(session,
+				this.executor, this.bufferSizeLimit, this.sendTimeLimit));
+	}
+
+	/**
+	 * Session decorator that buffers messages and drops the session when the client
+	 * cannot keep up.
+	 */
+	private static class DroppingSessionDecorator extends WebSocketSessionDecorator {
+
+		private final Executor executor;
+
+		private final int bufferSizeLimit;
+
+		private final long sendTimeLimit;
+
+		private final Deque<WebSocketMessage<?>> buffer = new ArrayDeque<>();
+
+		private boolean sending;
+
+		private boolean dropped;
+
+		private volatile long sendStartTime;
+
+		DroppingSessionDecorator(WebSocketSession session, Executor executor,
+				int bufferSizeLimit, long sendTimeLimit) {
+			super(session);
+			this.executor = executor;
+			this.bufferSizeLimit = bufferSizeLimit;
+			this.sendTimeLimit = sendTimeLimit;
+		}
+
+		@Override
+		public void sendMessage(WebSocketMessage<?> message) throws IOException {
+			String reason = null;
+			synchronized (this.buffer) {
+				if (this.dropped) {
+					return;
+				}
+				if (isSendTimeLimitExceeded()) {
+					reason = "send time limit of " + this.sendTimeLimit + "ms exceeded";
+				}
+				else if (this.buffer.size() >= this.bufferSizeLimit) {
+					reason = "send buffer limit of " + this.bufferSizeLimit
+							+ " messages exceeded";
+				}
+				else {
+					this.buffer.add(message);
+					if (this.sending) {
+						return;
+					}
+					this.sending = true;
+				}
+			}
+			if (reason != null) {
+				drop(reason, null);
+				return;
+			}
+			try {
+				this.executor.execute(this::drain);
+			}
+			catch (RuntimeException ex) {
+				boolean dropped;
+				synchronized (this.buffer) {
+					this.sending = false;
+					dropped = this.dropped;
+				}
+				if (dropped) {
+					closeSession();
+				}
+				throw ex;
+			}
+		}
+
+		private boolean isSendTimeLimitExceeded() {
+			long sendStartTime = this.sendStartTime;
+			return (sendStartTime != 0
+					&& System.currentTimeMillis() - sendStartTime > this.sendTimeLimit);
+		}
+
+		private void drain() {
+			while (true) {
+				WebSocketMessage<?> message;
+				synchronized (this.buffer) {
+					message = (this.dropped ? null : this.buffer.poll());
+					if (message == null) {
+						this.sending = false;
+						if (!this.dropped) {
+							return;
+						}
+					}
+				}
+				if (message == null) {
+					closeSession();
+					return;
+				}
+				try {
+					this.sendStartTime = System.currentTimeMillis();
+					getDelegate().sendMessage(message);
+				}
+				catch (IOException | RuntimeException ex) {
+					drop("send failed", ex);
+				}
+				finally {
+					this.sendStartTime = 0;
+				}
+			}
+		}
+
+		/**
+		 * Drop the session. When a drain task is running it closes the session once its
+		 * current send returns, otherwise the session is closed immediately.
+		 */
+		private void drop(String reason, Exception ex) {
+			boolean sending;
+			synchronized (this.buffer) {
+				if (this.dropped) {
+					return;
+				}
+				this.dropped = true;
+				this.buffer.clear();
+				sending = this.sending;
+			}
+			logger.debug("Dropping WebSocket session " + getId() + " (" + reason + ")",
+					ex);
+			if (!sending) {
+				closeSession();
+			}
+		}
+
+		private void closeSession() {
+			try {
+				getDelegate().close(CloseStatus.SESSION_NOT_RELIABLE);
+			}
+			catch (IOException ex) {
+				// Ignore
+			}
+		}
+
+	}
+
+}
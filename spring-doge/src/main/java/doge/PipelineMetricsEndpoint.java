@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+import doge.service.PipelineMetrics;
+
+/**
+ * Actuator endpoint exposing the {@link PipelineMetrics} as {@code /pipeline}. Timers
+ * are reported in milliseconds.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+class PipelineMetricsEndpoint extends AbstractEndpoint<Map<String, Object>> {
+
+	private static final double MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private final MetricRegistry registry;
+
+	public PipelineMetricsEndpoint(MetricRegistry registry) {
+		super("pipeline");
+		this.registry = registry;
+	}
+
+	@Override
+	public Map<String, Object> invoke() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (Map.Entry<String, Metric> entry : this.registry.getMetrics().entrySet()) {
+			String name = entry.getKey();
+			if (name.startsWith(PipelineMetrics.PREFIX)) {
+				Object value = describe(entry.getValue());
+				if (value != null) {
+					result.put(name.substring(PipelineMetrics.PREFIX.length()), value);
+				}
+			}
+		}
+		return result;
+	}
+
+	private Object describe(Metric metric) {
+		if (metric instanceof Timer) {
+			return describe((Timer) metric);
+		}
+		if (metric instanceof Counter) {
+			return ((Counter) metric).getCount();
+		}
+		if (metric instanceof Gauge) {
+			return ((Gauge<?>) metric).getValue();
+		}
+		return null;
+	}
+
+	private Map<String, Object> describe(Timer timer) {
+		Snapshot snapshot = timer.getSnapshot();
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("count", timer.getCount());
+		result.put("rate", timer.getOneMinuteRate());
+		result.put("mean", snapshot.getMean() / MILLIS);
+		result.put("p50", snapshot.getMedian() / MILLIS);
+		result.put("p90", snapshot.getValue(0.9) / MILLIS);
+		result.put("p99", snapshot.get99thPercentile() / MILLIS);
+		result.put("p999", snapshot.get999thPercentile() / MILLIS);
+		result.put("max", snapshot.getMax() / MILLIS);
+		return result;
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Support for virtual threads. The application still targets Java 8 so the
+ * {@code Thread.ofVirtual()} API is accessed reflectively and is only available when
+ * running on Java 21 or later. Java 19 and 20 have the same API as a preview feature
+ * that fails unless preview features are enabled, so it is not used there.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+final class VirtualThreads {
+
+	private static final String BUILDER_CLASS = "java.lang.Thread$Builder";
+
+	private static final int MINIMUM_JAVA_VERSION = 21;
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Return if virtual threads are supported by the running JVM.
+	 * @return if virtual threads are supported
+	 */
+	public static boolean isSupported() {
+		return getJavaVersion() >= MINIMUM_JAVA_VERSION
+				&& ClassUtils.hasMethod(Thread.class, "ofVirtual")
+				&& ClassUtils.isPresent(BUILDER_CLASS, null);
+	}
+
+	/**
+	 * Return the feature release of the running JVM, using {@code Runtime.version()}
+	 * when it is available.
+	 */
+	private static int getJavaVersion() {
+		Method version = ReflectionUtils.findMethod(Runtime.class, "version");
+		if (version == null) {
+			return 8;
+		}
+		Object runtimeVersion = ReflectionUtils.invokeMethod(version, null);
+		Method feature = ReflectionUtils.findMethod(runtimeVersion.getClass(), "feature");
+		if (feature == null) {
+			return 9;
+		}
+		return (Integer) ReflectionUtils.invokeMethod(feature, runtimeVersion);
+	}
+
+	/**
+	 * Create a {@link ThreadFactory} that creates virtual threads.
+	 * @param prefix the thread name prefix
+	 * @return the thread factory
+	 * @throws IllegalStateException if virtual threads are not supported
+	 */
+	public static ThreadFactory threadFactory(String prefix) {
+		if (!isSupported()) {
+			throw new IllegalStateException("Virtual threads require Java 21 or later");
+		}
+		try {
+			Class<?> builderClass = ClassUtils.forName(BUILDER_CLASS, null);
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method name = builderClass.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix, 0L);
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		}
+		catch (Exception ex) {
+			ReflectionUtils.handleReflectionException(ex);
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Create an {@link Executor} that starts a new virtual thread for each task.
+	 * @param prefix the thread name prefix
+	 * @return the executor
+	 */
+	public static Executor executor(String prefix) {
+		ThreadFactory threadFactory = threadFactory(prefix);
+		return (task) -> threadFactory.newThread(task).start();
+	}
+
+	/**
+	 * Create an {@link AsyncTaskExecutor} that starts a new virtual thread for each task
+	 * but runs at most the given number of tasks at once. Virtual threads are not
+	 * pooled, tasks beyond the limit wait for a permit on their own thread rather than
+	 * blocking the caller.
+	 * @param prefix the thread name prefix
+	 * @param concurrencyLimit the maximum number of tasks that run at once
+	 * @return the executor
+	 */
+	public static AsyncTaskExecutor boundedExecutor(String prefix, int concurrencyLimit) {
+		ThreadFactory threadFactory = threadFactory(prefix);
+		Semaphore permits = new Semaphore(concurrencyLimit);
+		SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor();
+		executor.setThreadFactory((task) -> threadFactory.newThread(() -> {
+			permits.acquireUninterruptibly();
+			try {
+				task.run();
+			}
+			finally {
+				permits.release();
+			}
+		}));
+		return executor;
+	}
+
+}
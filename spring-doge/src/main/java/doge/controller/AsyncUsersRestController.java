@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.controller;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import doge.domain.User;
+import doge.domain.UserRepository;
+import doge.photo.Photo;
+import doge.service.DogeService;
+import doge.service.DogeUploadPipeline;
+import doge.service.PipelineMetrics;
+import doge.service.StoredPhoto;
+import doge.service.UploadEvent;
+import doge.service.UploadEventPublisher;
+
+/**
+ * Non-blocking MVC Controller for '/async/users' REST endpoints. Request threads are
+ * released as soon as the work has been handed off, manipulation and GridFS access
+ * complete on background executors and photos are streamed back to the client.
+ * Conditional and range requests are handled in the same way as by
+ * {@link UsersRestController}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see UsersRestController
+ */
+@RestController
+@RequestMapping("/async/users")
+public class AsyncUsersRestController {
+
+	private final UserRepository userRepository;
+
+	private final DogeService dogeService;
+
+	private final DogeUploadPipeline uploadPipeline;
+
+	private final UploadEventPublisher events;
+
+	private final PipelineMetrics metrics;
+
+	@Autowired
+	public AsyncUsersRestController(UserRepository userRepository,
+			DogeService dogeService, DogeUploadPipeline uploadPipeline,
+			UploadEventPublisher events, PipelineMetrics metrics) {
+		this.userRepository = userRepository;
+		this.dogeService = dogeService;
+		this.uploadPipeline = uploadPipeline;
+		this.events = events;
+		this.metrics = metrics;
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = "{userId}/doge")
+	public CompletableFuture<ResponseEntity<Void>> postDogePhoto(
+			@PathVariable String userId, @RequestParam MultipartFile file,
+			UriComponentsBuilder uriBuilder) {
+		User user = this.userRepository.findOne(userId);
+		UriComponents uriTemplate = uriBuilder.path("/users/{userId}/doge/{dogeId}")
+				.build();
+		return this.dogeService.addDogePhotoAsync(user, file::getInputStream).thenApply(
+				(doge) -> {
+					URI uri = uriTemplate.expand(userId, doge.getId()).toUri();
+					this.events.publish(new UploadEvent(user, uri));
+					return ResponseEntity.created(uri).build();
+				});
+	}
+
+	@RequestMapping(method = RequestMethod.GET, value = "{userId}/doge/{dogeId}", produces = MediaType.IMAGE_JPEG_VALUE)
+	public CompletableFuture<ResponseEntity<StreamingResponseBody>> getDogePhoto(
+			@PathVariable String userId, @PathVariable String dogeId,
+			@RequestParam(value = "w", required = false) Integer width,
+			@RequestHeader HttpHeaders requestHeaders) {
+		return this.dogeService.getDogePhotoAsync(userId, dogeId, width).thenApply(
+				(photo) -> photoResponse(dogeId, photo, requestHeaders));
+	}
+
+	private ResponseEntity<StreamingResponseBody> photoResponse(String dogeId,
+			StoredPhoto photo, HttpHeaders requestHeaders) {
+		if (photo == null) {
+			return PhotoResponses.notFound(this.uploadPipeline, dogeId);
+		}
+		return PhotoResponses.create(photo, requestHeaders,
+				(start, end) -> (outputStream) -> write(photo, start, end, outputStream));
+	}
+
+	private void write(StoredPhoto photo, long start, long end, OutputStream outputStream)
+			throws IOException {
+		if (photo.getFile() != null) {
+			// transfer local files without copying them through an input stream
+			WritableByteChannel target = Channels.newChannel(outputStream);
+			try (FileChannel channel = FileChannel.open(photo.getFile().toPath(),
+					StandardOpenOption.READ)) {
+				long position = start;
+				while (position <= end) {
+					long transferred = channel.transferTo(position, end + 1 - position,
+							target);
+					if (transferred <= 0) {
+						throw new EOFException("Photo file " + photo.getFile()
+								+ " ended at " + position + " bytes");
+					}
+					position += transferred;
+					this.metrics.addDownloadBytes(transferred);
+				}
+			}
+			return;
+		}
+		boolean whole = (start == 0 && end == photo.getLength() - 1);
+		Photo source = (whole ? photo : photo.getRange(start, end));
+		try (InputStream inputStream = source.getInputStream()) {
+			StreamUtils.copy(inputStream, outputStream);
+		}
+	}
+
+}
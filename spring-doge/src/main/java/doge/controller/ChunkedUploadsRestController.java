@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import doge.domain.DogePhoto;
+import doge.domain.User;
+import doge.domain.UserRepository;
+import doge.service.ChunkedUpload;
+import doge.service.ChunkedUploadException;
+import doge.service.ChunkedUploadService;
+import doge.service.UploadEvent;
+import doge.service.UploadEventPublisher;
+
+/**
+ * MVC Controller for '/users/{userId}/uploads' REST endpoints, used to upload large
+ * photos in resumable chunks. An upload is started with its total length, chunks are
+ * then sent with {@code PUT} at increasing offsets and the upload is finally completed
+ * to add the doge photo. A client that loses its connection can {@code GET} the upload
+ * to find the offset to resume from.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@RestController
+@RequestMapping("/users/{userId}/uploads")
+public class ChunkedUploadsRestController {
+
+	private final UserRepository userRepository;
+
+	private final ChunkedUploadService uploadService;
+
+	private final UploadEventPublisher events;
+
+	@Autowired
+	public ChunkedUploadsRestController(UserRepository userRepository,
+			ChunkedUploadService uploadService, UploadEventPublisher events) {
+		this.userRepository = userRepository;
+		this.uploadService = uploadService;
+		this.events = events;
+	}
+
+	@RequestMapping(method = RequestMethod.POST)
+	public ResponseEntity<ChunkedUpload> startUpload(@PathVariable String userId,
+			@RequestParam long length, UriComponentsBuilder uriBuilder)
+			throws IOException {
+		User user = this.userRepository.findOne(userId);
+		if (user == null) {
+			return ResponseEntity.notFound().build();
+		}
+		ChunkedUpload upload = this.uploadService.start(user, length);
+		URI uri = uriBuilder.path("/users/{userId}/uploads/{uploadId}")
+				.buildAndExpand(userId, upload.getId()).toUri();
+		return ResponseEntity.created(uri).body(upload);
+	}
+
+	@RequestMapping(method = RequestMethod.GET, value = "{uploadId}")
+	public ResponseEntity<ChunkedUpload> getUpload(@PathVariable String userId,
+			@PathVariable String uploadId) {
+		User user = this.userRepository.findOne(userId);
+		return response(this.uploadService.get(user, uploadId));
+	}
+
+	@RequestMapping(method = RequestMethod.PUT, value = "{uploadId}")
+	public ResponseEntity<ChunkedUpload> writeChunk(@PathVariable String userId,
+			@PathVariable String uploadId, @RequestParam long offset, InputStream chunk)
+			throws IOException {
+		User user = this.userRepository.findOne(userId);
+		return response(this.uploadService.write(user, uploadId, offset, chunk));
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = "{uploadId}/complete")
+	public ResponseEntity<?> completeUpload(@PathVariable String userId,
+			@PathVariable String uploadId, UriComponentsBuilder uriBuilder)
+			throws IOException {
+		User user = this.userRepository.findOne(userId);
+		DogePhoto doge = this.uploadService.complete(user, uploadId);
+		if (doge == null) {
+			return ResponseEntity.notFound().build();
+		}
+		URI uri = uriBuilder.path("/users/{userId}/doge/{dogeId}")
+				.buildAndExpand(userId, doge.getId()).toUri();
+		this.events.publish(new UploadEvent(user, uri));
+		return ResponseEntity.created(uri).build();
+	}
+
+	@RequestMapping(method = RequestMethod.DELETE, value = "{uploadId}")
+	public ResponseEntity<?> cancelUpload(@PathVariable String userId,
+			@PathVariable String uploadId) throws IOException {
+		User user = this.userRepository.findOne(userId);
+		if (!this.uploadService.cancel(user, uploadId)) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.noContent().build();
+	}
+
+	@ExceptionHandler
+	public ResponseEntity<Map<String, String>> handleUploadException(
+			ChunkedUploadException ex) {
+		Map<String, String> body = new HashMap<>();
+		body.put("reason", ex.getReason().name());
+		body.put("message", ex.getMessage());
+		return ResponseEntity.status(getStatus(ex.getReason())).body(body);
+	}
+
+	private HttpStatus getStatus(ChunkedUploadException.Reason reason) {
+		switch (reason) {
+		case TOO_LARGE:
+			return HttpStatus.PAYLOAD_TOO_LARGE;
+		case UNSUPPORTED:
+			return HttpStatus.UNSUPPORTED_MEDIA_TYPE;
+		default:
+			return HttpStatus.CONFLICT;
+		}
+	}
+
+	private ResponseEntity<ChunkedUpload> response(ChunkedUpload upload) {
+		if (upload == null) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.ok(upload);
+	}
+
+}
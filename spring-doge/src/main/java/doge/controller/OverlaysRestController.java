@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.controller;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import doge.photo.DogePhotoManipulator;
+import doge.photo.DogePhotoManipulator.TextOverlay;
+
+/**
+ * MVC Controller for '/overlays' REST endpoints, used to change the doge text overlays
+ * at runtime. Each piece of text must fit on a 300 pixel wide photo so is limited to
+ * {@value #MAX_TEXT_LENGTH} characters.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@RestController
+@RequestMapping("/overlays")
+public class OverlaysRestController {
+
+	static final int MAX_TEXT_LENGTH = 20;
+
+	private final DogePhotoManipulator manipulator;
+
+	@Autowired
+	public OverlaysRestController(DogePhotoManipulator manipulator) {
+		this.manipulator = manipulator;
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public List<TextOverlay> getOverlays() {
+		return this.manipulator.getTextOverlays();
+	}
+
+	@RequestMapping(method = RequestMethod.POST)
+	public ResponseEntity<?> addOverlay(@RequestParam String very,
+			@RequestParam String so, @RequestParam String such) {
+		if (!isValid(very, so, such)) {
+			return ResponseEntity.badRequest().build();
+		}
+		try {
+			if (!this.manipulator.addTextOverlay(very, so, such)) {
+				return ResponseEntity.status(HttpStatus.CONFLICT).build();
+			}
+		}
+		catch (IllegalStateException ex) {
+			// the maximum number of overlays has been reached
+			return ResponseEntity.status(HttpStatus.CONFLICT).build();
+		}
+		return ResponseEntity.status(HttpStatus.CREATED).build();
+	}
+
+	@RequestMapping(method = RequestMethod.DELETE)
+	public ResponseEntity<?> removeOverlay(@RequestParam String very,
+			@RequestParam String so, @RequestParam String such) {
+		if (!isValid(very, so, such)) {
+			return ResponseEntity.badRequest().build();
+		}
+		if (!this.manipulator.removeTextOverlay(very, so, such)) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.noContent().build();
+	}
+
+	private boolean isValid(String... text) {
+		for (String candidate : text) {
+			if (!StringUtils.hasText(candidate) || candidate.length() > MAX_TEXT_LENGTH) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
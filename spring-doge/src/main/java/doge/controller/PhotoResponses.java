@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.controller;
+
+import java.util.List;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.util.StringUtils;
+
+import doge.service.DogeUploadPipeline;
+import doge.service.DogeUploadPipeline.Status;
+import doge.service.StoredPhoto;
+
+/**
+ * Conditional and range request handling shared by the controllers that return
+ * photos.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+final class PhotoResponses {
+
+	/**
+	 * Photos are never changed once they have been written.
+	 */
+	static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+	private PhotoResponses() {
+	}
+
+	/**
+	 * Create the response for a stored photo. Returns {@code 304} if the
+	 * {@code If-None-Match} header matches the photo, {@code 206} for a single
+	 * satisfiable range, {@code 416} for a range that cannot be satisfied and
+	 * {@code 200} otherwise.
+	 * @param photo the stored photo
+	 * @param requestHeaders the request headers
+	 * @param body the source of the body for the selected byte range
+	 * @param <T> the body type
+	 * @return the response
+	 */
+	public static <T> ResponseEntity<T> create(StoredPhoto photo,
+			HttpHeaders requestHeaders, Body<T> body) {
+		String eTag = "\"" + photo.getMd5() + "\"";
+		if (matchesETag(requestHeaders.getIfNoneMatch(), eTag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)
+					.header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL).build();
+		}
+		long length = photo.getLength();
+		HttpRange range = getRange(requestHeaders, eTag);
+		if (range == null) {
+			return photoResponse(HttpStatus.OK, photo, eTag).contentLength(length)
+					.body(body.get(0, length - 1));
+		}
+		long start = range.getRangeStart(length);
+		long end = Math.min(range.getRangeEnd(length), length - 1);
+		if (start >= length || start > end) {
+			return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+					.header(HttpHeaders.CONTENT_RANGE, "bytes */" + length).build();
+		}
+		return photoResponse(HttpStatus.PARTIAL_CONTENT, photo, eTag)
+				.header(HttpHeaders.CONTENT_RANGE,
+						"bytes " + start + "-" + end + "/" + length)
+				.contentLength(end - start + 1).body(body.get(start, end));
+	}
+
+	/**
+	 * Create the response for a photo that does not exist. Asynchronous uploads that
+	 * failed will never be found, {@code 410} is returned for those and {@code 404}
+	 * otherwise.
+	 * @param uploadPipeline the pipeline that asynchronous uploads are submitted to
+	 * @param dogeId the ID of the doge photo
+	 * @param <T> the body type
+	 * @return the response
+	 */
+	public static <T> ResponseEntity<T> notFound(DogeUploadPipeline uploadPipeline,
+			String dogeId) {
+		if (uploadPipeline.getStatus(dogeId) == Status.FAILED) {
+			return ResponseEntity.status(HttpStatus.GONE).build();
+		}
+		return ResponseEntity.notFound().build();
+	}
+
+	private static BodyBuilder photoResponse(HttpStatus status, StoredPhoto photo,
+			String eTag) {
+		return ResponseEntity.status(status).contentType(MediaType.IMAGE_JPEG)
+				.eTag(eTag).lastModified(photo.getUploadDate().getTime())
+				.header(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL)
+				.header(HttpHeaders.ACCEPT_RANGES, "bytes");
+	}
+
+	/**
+	 * Return if any of the {@code If-None-Match} values match the given entity tag.
+	 * Lists of tags, {@code *} and weak tags are supported.
+	 * @param candidates the {@code If-None-Match} header values
+	 * @param eTag the entity tag
+	 * @return if the tag matches
+	 */
+	public static boolean matchesETag(List<String> candidates, String eTag) {
+		for (String candidate : candidates) {
+			for (String value : StringUtils.commaDelimitedListToStringArray(candidate)) {
+				value = value.trim();
+				if (value.equals("*") || value.equals(eTag)
+						|| value.equals("W/" + eTag)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Return the single range requested or {@code null} if the complete photo should be
+	 * returned. Multiple ranges and malformed headers are ignored, as is a range with an
+	 * {@code If-Range} that doesn't match the photo.
+	 */
+	private static HttpRange getRange(HttpHeaders requestHeaders, String eTag) {
+		String ifRange = requestHeaders.getFirst("If-Range");
+		if (ifRange != null && !ifRange.trim().equals(eTag)) {
+			return null;
+		}
+		try {
+			List<HttpRange> ranges = requestHeaders.getRange();
+			return (ranges.size() == 1 ? ranges.get(0) : null);
+		}
+		catch (IllegalArgumentException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Source of the response body for a range of a photo.
+	 */
+	interface Body<T> {
+
+		/**
+		 * Return the body for the given range.
+		 * @param start the first byte of the range
+		 * @param end the last byte of the range (inclusive)
+		 * @return the body
+		 */
+		T get(long start, long end);
+
+	}
+
+}
@@ -16,34 +16,54 @@
 
 package doge.controller;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriComponents;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import doge.domain.DogePhoto;
+import doge.domain.Rendition;
 import doge.domain.User;
 import doge.domain.UserRepository;
 import doge.photo.Photo;
 import doge.photo.PhotoResource;
 import doge.service.DogeService;
+import doge.service.DogeUploadPipeline;
+import doge.service.PipelineMetrics;
+import doge.service.StoredPhoto;
+import doge.service.UploadEvent;
+import doge.service.UploadEventPublisher;
+import doge.service.UserPage;
+import doge.service.UserService;
 
 /**
  * MVC Controller for '/users' REST endpoints.
@@ -55,23 +75,92 @@ import doge.service.DogeService;
 @RequestMapping("/users")
 public class UsersRestController {
 
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
 	private final UserRepository userRepository;
 
+	private final UserService userService;
+
 	private final DogeService dogeService;
 
-	private final SimpMessagingTemplate messaging;
+	private final DogeUploadPipeline uploadPipeline;
+
+	private final UploadEventPublisher events;
+
+	private final PipelineMetrics metrics;
+
+	private final boolean asyncUploads;
 
 	@Autowired
-	public UsersRestController(UserRepository userRepository, DogeService dogeService,
-			SimpMessagingTemplate messaging) {
+	public UsersRestController(UserRepository userRepository, UserService userService,
+			DogeService dogeService, DogeUploadPipeline uploadPipeline,
+			UploadEventPublisher events, PipelineMetrics metrics,
+			@Value("${doge.upload.async:false}") boolean asyncUploads) {
 		this.userRepository = userRepository;
+		this.userService = userService;
 		this.dogeService = dogeService;
-		this.messaging = messaging;
+		this.uploadPipeline = uploadPipeline;
+		this.events = events;
+		this.metrics = metrics;
+		this.asyncUploads = asyncUploads;
 	}
 
 	@RequestMapping(method = RequestMethod.GET)
-	public List<User> getUsers() {
-		return this.userRepository.findAll();
+	public ResponseEntity<byte[]> getUsers(@RequestParam(required = false) String after,
+			@RequestParam(defaultValue = "100") int limit,
+			@RequestParam(required = false) List<String> fields,
+			@RequestHeader HttpHeaders requestHeaders, UriComponentsBuilder uriBuilder)
+			throws IOException {
+		UserPage page;
+		try {
+			page = this.userService.getUsers(after, limit, fields);
+		}
+		catch (IllegalArgumentException ex) {
+			return ResponseEntity.badRequest().build();
+		}
+		String eTag = "\"" + page.getMd5() + "\"";
+		String cacheControl = "max-age="
+				+ TimeUnit.MILLISECONDS.toSeconds(this.userService.getCacheTimeToLive());
+		if (PhotoResponses.matchesETag(requestHeaders.getIfNoneMatch(), eTag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(eTag)
+					.header(HttpHeaders.CACHE_CONTROL, cacheControl).build();
+		}
+		BodyBuilder response = ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+				.eTag(eTag).header(HttpHeaders.CACHE_CONTROL, cacheControl);
+		if (page.getNextAfter() != null) {
+			uriBuilder.path("/users").queryParam("after", page.getNextAfter())
+					.queryParam("limit", limit);
+			if (fields != null) {
+				uriBuilder.queryParam("fields",
+						StringUtils.collectionToCommaDelimitedString(fields));
+			}
+			String next = uriBuilder.build().encode().toUriString();
+			response.header("Link", "<" + next + ">; rel=\"next\"");
+		}
+		return response.body(page.getJson());
+	}
+
+	@RequestMapping(method = RequestMethod.GET, params = "stream=true")
+	public ResponseEntity<StreamingResponseBody> streamUsers(
+			@RequestParam(required = false) String after,
+			@RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) List<String> fields) {
+		List<String> selected;
+		try {
+			selected = this.userService.getFields(fields);
+		}
+		catch (IllegalArgumentException ex) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+				.body((outputStream) -> this.userService.writeUsers(after, limit,
+						selected, outputStream));
 	}
 
 	@RequestMapping(method = RequestMethod.POST, value = "{userId}/doge")
@@ -80,31 +169,154 @@ public class UsersRestController {
 			throws IOException {
 		Photo photo = file::getInputStream;
 		User user = this.userRepository.findOne(userId);
+		UriComponents uriTemplate = uriBuilder.path("/users/{userId}/doge/{dogeId}")
+				.build();
+		if (this.asyncUploads) {
+			return postDogePhotoAsync(user, photo, uriTemplate);
+		}
 		DogePhoto doge = this.dogeService.addDogePhoto(user, photo);
-		URI uri = uriBuilder.path("/users/{userId}/doge/{dogeId}")
-				.buildAndExpand(userId, doge.getId()).toUri();
-		sendMessage(user, uri);
+		URI uri = uriTemplate.expand(userId, doge.getId()).toUri();
+		this.events.publish(new UploadEvent(user, uri));
 		return ResponseEntity.created(uri).build();
 	}
 
-	private void sendMessage(User user, URI uri) {
-		Map<String, String> msg = new HashMap<>();
-		msg.put("dogePhotoUri", uri.toString());
-		msg.put("userId", user.getId());
-		msg.put("userName", user.getName());
-		msg.put("uploadDate", java.time.Clock.systemUTC().instant().toString());
-		this.messaging.convertAndSend("/topic/alarms", msg);
+	private ResponseEntity<?> postDogePhotoAsync(User user, Photo photo,
+			UriComponents uriTemplate) throws IOException {
+		try {
+			String dogeId = this.uploadPipeline.submit(user, photo,
+					(doge) -> this.events.publish(new UploadEvent(user, uriTemplate
+							.expand(user.getId(), doge.getId()).toUri())));
+			URI uri = uriTemplate.expand(user.getId(), dogeId).toUri();
+			return ResponseEntity.accepted().location(uri).build();
+		}
+		catch (TaskRejectedException ex) {
+			return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+		}
+	}
+
+	@RequestMapping(method = RequestMethod.POST, value = "{userId}/doges")
+	public ResponseEntity<List<URI>> postDogePhotos(@PathVariable String userId,
+			@RequestParam("file") List<MultipartFile> files,
+			UriComponentsBuilder uriBuilder) throws IOException {
+		User user = this.userRepository.findOne(userId);
+		List<Photo> photos = new ArrayList<>(files.size());
+		for (MultipartFile file : files) {
+			photos.add(file::getInputStream);
+		}
+		UriComponents uriTemplate = uriBuilder.path("/users/{userId}/doge/{dogeId}")
+				.build();
+		List<URI> uris = new ArrayList<>(files.size());
+		List<UploadEvent> events = new ArrayList<>(files.size());
+		for (DogePhoto doge : this.dogeService.addDogePhotos(user, photos)) {
+			URI uri = uriTemplate.expand(userId, doge.getId()).toUri();
+			uris.add(uri);
+			events.add(new UploadEvent(user, uri));
+		}
+		this.events.publish(events);
+		return ResponseEntity.status(HttpStatus.CREATED).body(uris);
+	}
+
+	@RequestMapping(method = RequestMethod.GET, value = "{userId}/doges")
+	public ResponseEntity<List<Map<String, Object>>> getDogePhotos(
+			@PathVariable String userId, @RequestParam(required = false) String before,
+			@RequestParam(defaultValue = "20") int limit,
+			UriComponentsBuilder uriBuilder) {
+		limit = Math.max(1, Math.min(limit, DogeService.MAX_PAGE_SIZE));
+		List<DogePhoto> doges;
+		try {
+			doges = getDogePhotos(userId, before, limit);
+		}
+		catch (IllegalArgumentException ex) {
+			return ResponseEntity.badRequest().build();
+		}
+		UriComponents uriTemplate = uriBuilder.cloneBuilder()
+				.path("/users/{userId}/doge/{dogeId}").build();
+		List<Map<String, Object>> body = new ArrayList<>(doges.size());
+		for (DogePhoto doge : doges) {
+			Map<String, Object> item = new LinkedHashMap<>();
+			item.put("id", doge.getId());
+			item.put("dogePhotoUri", uriTemplate.expand(userId, doge.getId()).toString());
+			item.put("createdAt", doge.getCreatedAt().toInstant().toString());
+			item.put("widths",
+					doge.getRenditions().stream().map(Rendition::getWidth).toArray());
+			body.add(item);
+		}
+		BodyBuilder response = ResponseEntity.ok();
+		if (doges.size() == limit) {
+			DogePhoto last = doges.get(limit - 1);
+			String cursor = last.getCreatedAt().getTime() + "-" + last.getId();
+			String next = uriBuilder.path("/users/{userId}/doges")
+					.queryParam("before", cursor).queryParam("limit", limit)
+					.buildAndExpand(userId).encode().toUriString();
+			response.header("Link", "<" + next + ">; rel=\"next\"");
+		}
+		return response.body(body);
+	}
+
+	/**
+	 * Return a page of photos. The {@code before} cursor is the creation time in
+	 * milliseconds and the ID of the last photo of the previous page, separated by a
+	 * {@code '-'}.
+	 */
+	private List<DogePhoto> getDogePhotos(String userId, String before, int limit) {
+		if (before == null) {
+			return this.dogeService.getDogePhotos(userId, null, null, limit);
+		}
+		int separator = before.indexOf('-');
+		if (separator == -1) {
+			throw new IllegalArgumentException("Malformed cursor '" + before + "'");
+		}
+		Date createdAt = new Date(Long.parseLong(before.substring(0, separator)));
+		return this.dogeService.getDogePhotos(userId, createdAt,
+				before.substring(separator + 1), limit);
 	}
 
 	@RequestMapping(method = RequestMethod.GET, value = "{userId}/doge/{dogeId}", produces = MediaType.IMAGE_JPEG_VALUE)
-	@ResponseStatus(HttpStatus.OK)
-	public Resource getDogePhoto(@PathVariable String userId, @PathVariable String dogeId)
+	public ResponseEntity<Resource> getDogePhoto(@PathVariable String userId,
+			@PathVariable String dogeId,
+			@RequestParam(value = "w", required = false) Integer width,
+			@RequestHeader HttpHeaders requestHeaders, HttpServletRequest request)
 			throws IOException {
-		User user = this.userRepository.findOne(userId);
-		Photo photo = this.dogeService.getDogePhoto(user, dogeId);
-		HttpHeaders headers = new HttpHeaders();
-		headers.setContentType(MediaType.IMAGE_JPEG);
-		return new PhotoResource(photo);
+		StoredPhoto photo = this.dogeService.getDogePhoto(userId, dogeId, width);
+		if (photo == null) {
+			return PhotoResponses.notFound(this.uploadPipeline, dogeId);
+		}
+		return PhotoResponses.create(photo, requestHeaders,
+				(start, end) -> getBody(request, photo, start, end));
+	}
+
+	/**
+	 * Return the body for a range of a photo. Photos stored in local files are sent by
+	 * Tomcat using sendfile when the connector supports it, in which case the body is
+	 * {@code null}. Local files are not read through the metered photo so their length
+	 * is counted as downloaded here.
+	 */
+	private Resource getBody(HttpServletRequest request, StoredPhoto photo, long start,
+			long end) {
+		File file = photo.getFile();
+		boolean whole = (start == 0 && end == photo.getLength() - 1);
+		if (file != null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, file.getAbsolutePath());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, end + 1);
+			this.metrics.addDownloadBytes(end - start + 1);
+			return null;
+		}
+		if (file != null && whole) {
+			this.metrics.addDownloadBytes(photo.getLength());
+			return new FileSystemResource(file);
+		}
+		return new PhotoResource((whole ? photo : photo.getRange(start, end)), end
+				- start + 1);
+	}
+
+	@RequestMapping(method = RequestMethod.DELETE, value = "{userId}/doge/{dogeId}")
+	public ResponseEntity<Void> deleteDogePhoto(@PathVariable String userId,
+			@PathVariable String dogeId) {
+		if (!this.dogeService.deleteDogePhoto(userId, dogeId)) {
+			return ResponseEntity.notFound().build();
+		}
+		return ResponseEntity.noContent().build();
 	}
 
 }
@@ -16,16 +16,27 @@
 
 package doge.domain;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.DBRef;
+import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.util.Assert;
 
 /**
- * A Doge submitted by a {@link User}.
+ * A Doge submitted by a {@link User}. The ID of the user is also held directly so that
+ * a user's photos can be listed, newest first, without matching on the {@link DBRef}.
  *
  * @author Josh Long
  * @author Phillip Webb
  */
+@Document
+@CompoundIndex(name = "userId_createdAt", def = "{'userId': 1, 'createdAt': -1, '_id': -1}")
 public class DogePhoto {
 
 	@Id
@@ -34,21 +45,136 @@ public class DogePhoto {
 	@DBRef(lazy = true)
 	private User user;
 
+	private String userId;
+
 	private String fileRef;
 
+	private List<Rendition> renditions;
+
+	private Date createdAt;
+
+	private String contentId;
+
 	public DogePhoto(User user, String fileRef) {
-		Assert.notNull(user, "User must not be null");
+		this(null, user, fileRef);
+	}
+
+	public DogePhoto(String id, User user, String fileRef) {
+		this(id, user, fileRef, null);
+	}
+
+	public DogePhoto(String id, User user, String fileRef, List<Rendition> renditions) {
+		this(id, user, fileRef, renditions, null);
+	}
+
+	public DogePhoto(String id, User user, String fileRef, List<Rendition> renditions,
+			String contentId) {
+		this(id, user, extractUserId(user), fileRef, renditions, new Date(), contentId);
+	}
+
+	/**
+	 * Create a photo read from Mongo. The user will be {@code null} if only the file
+	 * references were read.
+	 */
+	@PersistenceConstructor
+	private DogePhoto(String id, User user, String userId, String fileRef,
+			List<Rendition> renditions, Date createdAt, String contentId) {
 		Assert.notNull(fileRef, "FileRef must not be null");
+		this.id = id;
 		this.user = user;
+		this.userId = userId;
 		this.fileRef = fileRef;
+		this.renditions = (renditions == null ? Collections.<Rendition> emptyList()
+				: new ArrayList<>(renditions));
+		this.createdAt = createdAt;
+		this.contentId = contentId;
+	}
+
+	private static String extractUserId(User user) {
+		Assert.notNull(user, "User must not be null");
+		return user.getId();
 	}
 
 	public String getId() {
 		return this.id;
 	}
 
+	public String getUserId() {
+		return this.userId;
+	}
+
+	/**
+	 * Return when the photo was created or {@code null} for photos stored before the
+	 * creation date was recorded.
+	 * @return the creation date
+	 */
+	public Date getCreatedAt() {
+		return this.createdAt;
+	}
+
+	/**
+	 * Return the file reference of the default rendition.
+	 * @return the default file reference
+	 */
 	public String getFileRef() {
 		return this.fileRef;
 	}
 
+	/**
+	 * Return the file reference of the rendition that best matches the given width. The
+	 * smallest rendition at least as wide as the requested width is preferred, otherwise
+	 * the widest rendition is used. Photos without renditions always return the default
+	 * file reference.
+	 * @param width the requested width
+	 * @return the file reference
+	 */
+	public String getFileRef(int width) {
+		Rendition match = null;
+		for (Rendition rendition : this.renditions) {
+			if (match == null
+					|| isBetterMatch(rendition.getWidth(), match.getWidth(), width)) {
+				match = rendition;
+			}
+		}
+		return (match == null ? this.fileRef : match.getFileRef());
+	}
+
+	public List<Rendition> getRenditions() {
+		return Collections.unmodifiableList(this.renditions);
+	}
+
+	/**
+	 * Return the ID of the {@link PhotoContent} that holds the renditions or
+	 * {@code null} if the renditions are not shared.
+	 * @return the content ID
+	 */
+	public String getContentId() {
+		return this.contentId;
+	}
+
+	/**
+	 * Return the width from {@code candidates} that best matches the requested width
+	 * using the same rules as {@link #getFileRef(int)}.
+	 * @param candidates the candidate widths
+	 * @param width the requested width
+	 * @return the best matching width
+	 */
+	public static int getBestWidth(int[] candidates, int width) {
+		Assert.isTrue(candidates.length > 0, "Candidates must not be empty");
+		int match = candidates[0];
+		for (int candidate : candidates) {
+			if (isBetterMatch(candidate, match, width)) {
+				match = candidate;
+			}
+		}
+		return match;
+	}
+
+	private static boolean isBetterMatch(int candidate, int current, int width) {
+		if (current >= width) {
+			return (candidate >= width && candidate < current);
+		}
+		return (candidate > current);
+	}
+
 }
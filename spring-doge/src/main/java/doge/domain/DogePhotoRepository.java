@@ -16,7 +16,13 @@
 
 package doge.domain;
 
+import java.util.Date;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
 
 /**
  * The {@link DogePhoto} repository.
@@ -28,4 +34,33 @@ public interface DogePhotoRepository extends MongoRepository<DogePhoto, String>
 
 	DogePhoto findOneByIdAndUser(String id, User user);
 
+	/**
+	 * Find a photo of a user, reading only its file references.
+	 * @param id the photo ID
+	 * @param userId the user ID
+	 * @return the photo, without a user, or {@code null}
+	 */
+	@Query(fields = "{ 'fileRef' : 1, 'renditions' : 1, 'contentId' : 1 }")
+	DogePhoto findFileRefsByIdAndUserId(String id, String userId);
+
+	Long deleteByIdAndUserId(String id, String userId);
+
+	Long deleteByIdAndUser(String id, User user);
+
+	List<DogePhoto> findByUserId(String userId, Pageable pageable);
+
+	/**
+	 * Find the photos of a user that sort after the given photo when ordered by
+	 * creation date and ID, both descending.
+	 * @param userId the user ID
+	 * @param createdAt the creation date of the last photo seen
+	 * @param id the ID of the last photo seen
+	 * @param pageable the page to return
+	 * @return the photos
+	 */
+	@Query("{ 'userId' : ?0, '$or' : [ { 'createdAt' : { '$lt' : ?1 } }, "
+			+ "{ 'createdAt' : ?1, '_id' : { '$lt' : ?2 } } ] }")
+	List<DogePhoto> findByUserIdBefore(String userId, Date createdAt, ObjectId id,
+			Pageable pageable);
+
 }
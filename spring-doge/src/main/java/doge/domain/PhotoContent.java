@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.util.Assert;
+
+/**
+ * Renditions stored for a source photo, shared by every {@link DogePhoto} uploaded with
+ * the same content. The ID is derived from the source bytes and the manipulation
+ * applied. The stored files are deleted once no photos reference them.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@Document
+public class PhotoContent {
+
+	@Id
+	private String id;
+
+	private List<Rendition> renditions;
+
+	private long references;
+
+	public PhotoContent(String id, List<Rendition> renditions, long references) {
+		Assert.hasText(id, "Id must not be empty");
+		Assert.notEmpty(renditions, "Renditions must not be empty");
+		this.id = id;
+		this.renditions = new ArrayList<>(renditions);
+		this.references = references;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public List<Rendition> getRenditions() {
+		return Collections.unmodifiableList(this.renditions);
+	}
+
+	/**
+	 * Return the number of photos that reference the content.
+	 * @return the number of references
+	 */
+	public long getReferences() {
+		return this.references;
+	}
+
+}
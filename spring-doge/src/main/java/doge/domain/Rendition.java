@@ -0,0 +1,48 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.domain;
+
+import org.springframework.util.Assert;
+
+/**
+ * A single stored size of a {@link DogePhoto}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class Rendition {
+
+	private final int width;
+
+	private final String fileRef;
+
+	public Rendition(int width, String fileRef) {
+		Assert.isTrue(width > 0, "Width must be positive");
+		Assert.notNull(fileRef, "FileRef must not be null");
+		this.width = width;
+		this.fileRef = fileRef;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public String getFileRef() {
+		return this.fileRef;
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import doge.photo.Photo;
+
+/**
+ * A chunked upload that is in progress. Chunks are appended to a spool file until the
+ * expected length has been received, and are digested as they are appended.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see ChunkedUploadService
+ */
+public class ChunkedUpload {
+
+	private final String id;
+
+	private final String userId;
+
+	private final long length;
+
+	private final Path spool;
+
+	private volatile long received;
+
+	private volatile int width;
+
+	private volatile int height;
+
+	private volatile long lastAccessed = System.currentTimeMillis();
+
+	private MessageDigest digest = DigestedPhoto.createDigest();
+
+	private byte[] digested;
+
+	ChunkedUpload(String id, String userId, long length, Path spool) {
+		this.id = id;
+		this.userId = userId;
+		this.length = length;
+		this.spool = spool;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public String getUserId() {
+		return this.userId;
+	}
+
+	/**
+	 * Return the total length of the upload in bytes.
+	 * @return the length
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Return the number of bytes received so far. This is the offset that the next
+	 * chunk must be written at.
+	 * @return the received bytes
+	 */
+	public long getReceived() {
+		return this.received;
+	}
+
+	void setReceived(long received) {
+		this.received = received;
+	}
+
+	/**
+	 * Return the width of the photo or {@code 0} if the header has not yet been read.
+	 * @return the width
+	 */
+	public int getWidth() {
+		return this.width;
+	}
+
+	/**
+	 * Return the height of the photo or {@code 0} if the header has not yet been read.
+	 * @return the height
+	 */
+	public int getHeight() {
+		return this.height;
+	}
+
+	void setDimensions(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	boolean hasDimensions() {
+		return this.width > 0;
+	}
+
+	public boolean isComplete() {
+		return this.received == this.length;
+	}
+
+	Path getSpool() {
+		return this.spool;
+	}
+
+	/**
+	 * Return the digest that received bytes are added to or {@code null} if the spool
+	 * file must be digested once the upload is complete.
+	 */
+	MessageDigest getDigest() {
+		return this.digest;
+	}
+
+	/**
+	 * Stop digesting chunks, for example because a chunk failed part way through and
+	 * the digest may not match the spool file.
+	 */
+	void invalidateDigest() {
+		this.digest = null;
+	}
+
+	/**
+	 * Return the spooled photo, which is a {@link DigestedPhoto} unless the digest has
+	 * been invalidated.
+	 */
+	Photo getPhoto() {
+		Photo photo = () -> Files.newInputStream(this.spool);
+		if (this.digest == null) {
+			return photo;
+		}
+		if (this.digested == null) {
+			this.digested = this.digest.digest();
+		}
+		return new DigestedPhoto(photo, this.digested, this.received);
+	}
+
+	long getLastAccessed() {
+		return this.lastAccessed;
+	}
+
+	void touch() {
+		this.lastAccessed = System.currentTimeMillis();
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+/**
+ * Exception thrown when a chunked upload cannot proceed.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see ChunkedUploadService
+ */
+public class ChunkedUploadException extends RuntimeException {
+
+	private final Reason reason;
+
+	public ChunkedUploadException(Reason reason, String message) {
+		super(message);
+		this.reason = reason;
+	}
+
+	public Reason getReason() {
+		return this.reason;
+	}
+
+	/**
+	 * The reason that an upload failed.
+	 */
+	public static enum Reason {
+
+		/**
+		 * The chunk offset does not match the bytes received so far.
+		 */
+		OFFSET_MISMATCH,
+
+		/**
+		 * The upload is larger than allowed, either in bytes or in pixels.
+		 */
+		TOO_LARGE,
+
+		/**
+		 * The upload is not a supported photo.
+		 */
+		UNSUPPORTED,
+
+		/**
+		 * The upload cannot be completed because bytes are missing.
+		 */
+		INCOMPLETE
+
+	}
+
+}
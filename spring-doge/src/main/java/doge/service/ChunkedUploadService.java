@@ -0,0 +1,291 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import doge.domain.DogePhoto;
+import doge.domain.User;
+import doge.photo.PhotoHeader;
+import doge.service.ChunkedUploadException.Reason;
+
+/**
+ * Resumable uploads of large source photos. Chunks are written by offset to a spool file
+ * using a {@link FileChannel} so an interrupted upload can continue from the last byte
+ * received. Chunks are digested as they are written so that the completed photo does
+ * not need to be read again to recognise a duplicate. The photo header is checked as
+ * soon as enough data has arrived so that oversized photos are rejected before the
+ * full body has been sent. Uploads that have not been touched for the configured
+ * timeout are discarded by a scheduled sweep.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@Service
+public class ChunkedUploadService {
+
+	private static final Log logger = LogFactory.getLog(ChunkedUploadService.class);
+
+	/**
+	 * The maximum number of bytes that may be received without being able to read the
+	 * photo dimensions.
+	 */
+	private static final int MAX_HEADER_BYTES = 1024 * 1024;
+
+	private final DogeService dogeService;
+
+	private final Path spoolDirectory;
+
+	private final long maxBytes;
+
+	private final long maxPixels;
+
+	private final long timeout;
+
+	private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+
+	@Autowired
+	public ChunkedUploadService(DogeService dogeService,
+			@Value("${doge.upload.spool-dir:${java.io.tmpdir}}") String spoolDirectory,
+			@Value("${doge.upload.max-bytes:33554432}") long maxBytes,
+			@Value("${doge.upload.max-pixels:50000000}") long maxPixels,
+			@Value("${doge.upload.timeout-minutes:60}") long timeoutMinutes)
+			throws IOException {
+		this.dogeService = dogeService;
+		this.spoolDirectory = Files.createDirectories(Paths.get(spoolDirectory));
+		this.maxBytes = maxBytes;
+		this.maxPixels = maxPixels;
+		this.timeout = TimeUnit.MINUTES.toMillis(timeoutMinutes);
+	}
+
+	/**
+	 * Start a new upload.
+	 * @param user the user adding the photo
+	 * @param length the total length of the photo in bytes
+	 * @return the upload
+	 * @throws IOException if the spool file cannot be created
+	 * @throws ChunkedUploadException if the upload is too large
+	 */
+	public ChunkedUpload start(User user, long length) throws IOException {
+		if (length <= 0 || length > this.maxBytes) {
+			throw new ChunkedUploadException(Reason.TOO_LARGE,
+					"Uploads must be between 1 and " + this.maxBytes + " bytes");
+		}
+		Path spool = Files.createTempFile(this.spoolDirectory, "doge-", ".upload");
+		ChunkedUpload upload = new ChunkedUpload(ObjectId.get().toString(),
+				user.getId(), length, spool);
+		this.uploads.put(upload.getId(), upload);
+		return upload;
+	}
+
+	/**
+	 * Return an upload that is in progress.
+	 * @param user the user adding the photo
+	 * @param uploadId the upload ID
+	 * @return the upload or {@code null} if there is no such upload for the user
+	 */
+	public ChunkedUpload get(User user, String uploadId) {
+		ChunkedUpload upload = this.uploads.get(uploadId);
+		if (upload == null || user == null || !upload.getUserId().equals(user.getId())) {
+			return null;
+		}
+		return upload;
+	}
+
+	/**
+	 * Write a chunk. Chunks must be written in order, each starting where the previous
+	 * chunk ended. If the chunk is interrupted the bytes that did arrive are kept and
+	 * the upload can continue from {@link ChunkedUpload#getReceived()}.
+	 * @param user the user adding the photo
+	 * @param uploadId the upload ID
+	 * @param offset the offset of the chunk
+	 * @param chunk the chunk data
+	 * @return the upload or {@code null} if there is no such upload for the user
+	 * @throws IOException if the chunk cannot be written
+	 * @throws ChunkedUploadException if the offset is wrong or the photo is rejected
+	 */
+	public ChunkedUpload write(User user, String uploadId, long offset, InputStream chunk)
+			throws IOException {
+		ChunkedUpload upload = get(user, uploadId);
+		if (upload == null) {
+			return null;
+		}
+		synchronized (upload) {
+			upload.touch();
+			if (offset != upload.getReceived()) {
+				throw new ChunkedUploadException(Reason.OFFSET_MISMATCH,
+						"Expected offset " + upload.getReceived() + " but got " + offset);
+			}
+			transfer(upload, chunk);
+			if (!upload.hasDimensions()) {
+				checkHeader(upload);
+			}
+			return upload;
+		}
+	}
+
+	private void transfer(ChunkedUpload upload, InputStream chunk) throws IOException {
+		long position = upload.getReceived();
+		MessageDigest digest = upload.getDigest();
+		try (FileChannel channel = FileChannel.open(upload.getSpool(),
+				StandardOpenOption.WRITE);
+				ReadableByteChannel source = Channels.newChannel(digest != null
+						? new DigestInputStream(chunk, digest) : chunk)) {
+			long remaining = upload.getLength() - position;
+			while (remaining > 0) {
+				long transferred = channel.transferFrom(source, position, remaining);
+				if (transferred <= 0) {
+					break;
+				}
+				position += transferred;
+				remaining -= transferred;
+			}
+			if (remaining == 0 && source.read(ByteBuffer.allocate(1)) != -1) {
+				discard(upload);
+				throw new ChunkedUploadException(Reason.TOO_LARGE, "Received more than "
+						+ "the declared " + upload.getLength() + " bytes");
+			}
+		}
+		catch (IOException ex) {
+			// bytes may have been digested without being written
+			upload.invalidateDigest();
+			throw ex;
+		}
+		finally {
+			upload.setReceived(position);
+		}
+	}
+
+	private void checkHeader(ChunkedUpload upload) throws IOException {
+		Dimension dimension;
+		try (InputStream inputStream = Files.newInputStream(upload.getSpool())) {
+			dimension = PhotoHeader.readDimensions(inputStream);
+		}
+		if (dimension == null) {
+			if (upload.isComplete() || upload.getReceived() >= MAX_HEADER_BYTES) {
+				discard(upload);
+				throw new ChunkedUploadException(Reason.UNSUPPORTED,
+						"Upload is not a supported photo");
+			}
+			return;
+		}
+		if ((long) dimension.width * dimension.height > this.maxPixels) {
+			discard(upload);
+			throw new ChunkedUploadException(Reason.TOO_LARGE, "Photos must not exceed "
+					+ this.maxPixels + " pixels");
+		}
+		upload.setDimensions(dimension.width, dimension.height);
+	}
+
+	/**
+	 * Complete an upload, adding the doge photo. The upload is kept if the photo cannot
+	 * be added because of an {@link IOException}, so that completion can be retried. It
+	 * is discarded if the photo is added or is rejected as invalid.
+	 * @param user the user adding the photo
+	 * @param uploadId the upload ID
+	 * @return the saved doge photo or {@code null} if there is no such upload for the
+	 * user
+	 * @throws IOException if the photo cannot be added
+	 * @throws ChunkedUploadException if the upload is incomplete
+	 */
+	public DogePhoto complete(User user, String uploadId) throws IOException {
+		ChunkedUpload upload = get(user, uploadId);
+		if (upload == null) {
+			return null;
+		}
+		synchronized (upload) {
+			upload.touch();
+			if (!upload.isComplete()) {
+				throw new ChunkedUploadException(Reason.INCOMPLETE, "Received "
+						+ upload.getReceived() + " of " + upload.getLength() + " bytes");
+			}
+			DogePhoto doge;
+			try {
+				doge = this.dogeService.addDogePhoto(user, upload.getPhoto());
+			}
+			catch (RuntimeException ex) {
+				discard(upload);
+				throw ex;
+			}
+			discard(upload);
+			return doge;
+		}
+	}
+
+	/**
+	 * Cancel an upload.
+	 * @param user the user adding the photo
+	 * @param uploadId the upload ID
+	 * @return {@code true} if the upload was cancelled
+	 * @throws IOException if the spool file cannot be deleted
+	 */
+	public boolean cancel(User user, String uploadId) throws IOException {
+		ChunkedUpload upload = get(user, uploadId);
+		if (upload == null) {
+			return false;
+		}
+		discard(upload);
+		return true;
+	}
+
+	/**
+	 * Discard uploads that have not been touched within the timeout.
+	 */
+	@Scheduled(fixedDelayString = "${doge.upload.sweep-millis:60000}")
+	public void discardExpired() {
+		long expired = System.currentTimeMillis() - this.timeout;
+		for (ChunkedUpload upload : this.uploads.values()) {
+			if (upload.getLastAccessed() < expired) {
+				try {
+					discard(upload);
+				}
+				catch (IOException ex) {
+					logger.warn("Unable to delete spool file " + upload.getSpool(), ex);
+				}
+			}
+		}
+	}
+
+	private void discard(ChunkedUpload upload) throws IOException {
+		this.uploads.remove(upload.getId());
+		Files.deleteIfExists(upload.getSpool());
+	}
+
+}
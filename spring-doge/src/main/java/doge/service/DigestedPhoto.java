@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.springframework.util.Assert;
+
+import doge.photo.Photo;
+
+/**
+ * A source {@link Photo} along with the SHA-256 digest and length of its bytes. Photos
+ * are digested as they are spooled so that identical uploads can be recognised before
+ * they are decoded.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class DigestedPhoto implements Photo {
+
+	private final Photo photo;
+
+	private final byte[] digest;
+
+	private final long length;
+
+	/**
+	 * Create a new {@link DigestedPhoto} instance.
+	 * @param photo the photo
+	 * @param digest the SHA-256 digest of the photo
+	 * @param length the length of the photo in bytes
+	 */
+	public DigestedPhoto(Photo photo, byte[] digest, long length) {
+		Assert.notNull(photo, "Photo must not be null");
+		Assert.notNull(digest, "Digest must not be null");
+		this.photo = photo;
+		this.digest = digest;
+		this.length = length;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return this.photo.getInputStream();
+	}
+
+	public byte[] getDigest() {
+		return this.digest;
+	}
+
+	public long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Copy a photo to a file, digesting it as it is copied.
+	 * @param photo the photo to copy
+	 * @param file the file to copy to, replaced if it exists
+	 * @return the digested photo, read from the file
+	 * @throws IOException if the photo cannot be copied
+	 */
+	public static DigestedPhoto spool(Photo photo, Path file) throws IOException {
+		MessageDigest digest = createDigest();
+		long length;
+		try (InputStream inputStream = new DigestInputStream(photo.getInputStream(),
+				digest)) {
+			length = Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+		}
+		return new DigestedPhoto(() -> Files.newInputStream(file), digest.digest(),
+				length);
+	}
+
+	/**
+	 * Return a digested photo, reading the photo once to digest it unless it has
+	 * already been digested.
+	 * @param photo the photo
+	 * @return the digested photo
+	 * @throws IOException if the photo cannot be read
+	 */
+	public static DigestedPhoto digest(Photo photo) throws IOException {
+		if (photo instanceof DigestedPhoto) {
+			return (DigestedPhoto) photo;
+		}
+		MessageDigest digest = createDigest();
+		long length = 0;
+		try (InputStream inputStream = photo.getInputStream()) {
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				length += read;
+			}
+		}
+		return new DigestedPhoto(photo, digest.digest(), length);
+	}
+
+	static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+}
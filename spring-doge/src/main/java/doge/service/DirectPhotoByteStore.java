@@ -0,0 +1,351 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.util.Assert;
+
+/**
+ * {@link PhotoByteStore} that keeps bytes outside of the Java heap. Direct buffer slabs
+ * are allocated on demand, up to a fixed capacity, and divided into power of two sized
+ * slots using a buddy allocator. Each photo occupies the smallest slot that will hold
+ * it. Released slots are merged with their free buddies so that space released by
+ * small photos can be reused by larger ones, and slabs that become completely free are
+ * returned so that their capacity is available to any slot size.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class DirectPhotoByteStore implements PhotoByteStore {
+
+	private static final int MIN_SLOT_SIZE = 4 * 1024;
+
+	private static final int MAX_SLOT_SIZE = 1024 * 1024;
+
+	private static final int SLAB_SIZE = 4 * 1024 * 1024;
+
+	private final long capacity;
+
+	private final List<Slab> slabs = new ArrayList<>();
+
+	private long allocated;
+
+	private long used;
+
+	public DirectPhotoByteStore(long capacity) {
+		Assert.isTrue(capacity >= 0, "Capacity must not be negative");
+		this.capacity = capacity;
+	}
+
+	@Override
+	public boolean canStore(long length) {
+		return length <= MAX_SLOT_SIZE
+				&& getSlotSize((int) length) <= Long.highestOneBit(this.capacity);
+	}
+
+	@Override
+	public long getStoredLength(long length) {
+		return getSlotSize((int) Math.min(length, MAX_SLOT_SIZE));
+	}
+
+	@Override
+	public synchronized long getAvailableLength() {
+		return this.capacity - this.used;
+	}
+
+	@Override
+	public PhotoBytes store(byte[] bytes, int length) {
+		if (!canStore(length)) {
+			return null;
+		}
+		int order = getOrder(getSlotSize(length));
+		Slot slot = allocate(order);
+		if (slot == null) {
+			return null;
+		}
+		slot.buffer.duplicate().put(bytes, 0, length);
+		return new SlotPhotoBytes(slot, length);
+	}
+
+	/**
+	 * @return the number of bytes of direct memory allocated by the store
+	 */
+	public synchronized long getAllocatedBytes() {
+		return this.allocated;
+	}
+
+	private int getSlotSize(int length) {
+		int size = Math.max(length, MIN_SLOT_SIZE);
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+
+	private int getOrder(int size) {
+		return Integer.numberOfTrailingZeros(size / MIN_SLOT_SIZE);
+	}
+
+	private synchronized Slot allocate(int order) {
+		Slot slot = allocateSlot(order);
+		if (slot != null) {
+			this.used += slot.buffer.capacity();
+		}
+		return slot;
+	}
+
+	private Slot allocateSlot(int order) {
+		for (int candidate = order; candidate <= getOrder(SLAB_SIZE); candidate++) {
+			for (Slab slab : this.slabs) {
+				int index = slab.takeFree(candidate);
+				if (index != -1) {
+					return slab.split(index, candidate, order);
+				}
+			}
+		}
+		Slab slab = addSlab(order);
+		return (slab != null ? slab.split(0, slab.order, order) : null);
+	}
+
+	/**
+	 * Allocate a new slab that can hold at least one slot of the given order.
+	 */
+	private Slab addSlab(int order) {
+		long available = Math.min(SLAB_SIZE, this.capacity - this.allocated);
+		int size = (int) Long.highestOneBit(Math.max(available, 0));
+		if (size < MIN_SLOT_SIZE << order) {
+			return null;
+		}
+		Slab slab = new Slab(ByteBuffer.allocateDirect(size), getOrder(size));
+		this.slabs.add(slab);
+		this.allocated += size;
+		return slab;
+	}
+
+	private synchronized void free(Slot slot) {
+		Slab slab = slot.slab;
+		this.used -= slot.buffer.capacity();
+		if (slab.free(slot.index, slot.order)) {
+			this.slabs.remove(slab);
+			this.allocated -= slab.buffer.capacity();
+		}
+	}
+
+	/**
+	 * A direct buffer divided into slots. Free slots are tracked for each order, slot
+	 * {@code index} of order {@code n} starts at {@code index * (MIN_SLOT_SIZE << n)}.
+	 */
+	private static class Slab {
+
+		private final ByteBuffer buffer;
+
+		private final int order;
+
+		private final BitSet[] free;
+
+		public Slab(ByteBuffer buffer, int order) {
+			this.buffer = buffer;
+			this.order = order;
+			this.free = new BitSet[order + 1];
+			for (int i = 0; i <= order; i++) {
+				this.free[i] = new BitSet(1 << (order - i));
+			}
+		}
+
+		/**
+		 * Take a free slot of the given order.
+		 * @return the slot index or -1 if there is no free slot of that order
+		 */
+		public int takeFree(int order) {
+			if (order > this.order) {
+				return -1;
+			}
+			int index = this.free[order].nextSetBit(0);
+			if (index != -1) {
+				this.free[order].clear(index);
+			}
+			return index;
+		}
+
+		/**
+		 * Split a taken slot down to the required order, freeing the upper halves.
+		 */
+		public Slot split(int index, int order, int requiredOrder) {
+			while (order > requiredOrder) {
+				order--;
+				index <<= 1;
+				this.free[order].set(index + 1);
+			}
+			int size = MIN_SLOT_SIZE << order;
+			ByteBuffer buffer = this.buffer.duplicate();
+			buffer.limit((index + 1) * size);
+			buffer.position(index * size);
+			return new Slot(this, buffer.slice(), index, order);
+		}
+
+		/**
+		 * Free a slot, merging it with its buddies.
+		 * @return {@code true} if the whole slab is now free
+		 */
+		public boolean free(int index, int order) {
+			while (order < this.order && this.free[order].get(index ^ 1)) {
+				this.free[order].clear(index ^ 1);
+				index >>= 1;
+				order++;
+			}
+			if (order == this.order) {
+				return true;
+			}
+			this.free[order].set(index);
+			return false;
+		}
+
+	}
+
+	/**
+	 * A slot allocated from a {@link Slab}.
+	 */
+	private static class Slot {
+
+		private final Slab slab;
+
+		private final ByteBuffer buffer;
+
+		private final int index;
+
+		private final int order;
+
+		public Slot(Slab slab, ByteBuffer buffer, int index, int order) {
+			this.slab = slab;
+			this.buffer = buffer;
+			this.index = index;
+			this.order = order;
+		}
+
+	}
+
+	/**
+	 * {@link PhotoBytes} held in a slot. The slot is returned to the store once the
+	 * bytes have been released and all open streams closed.
+	 */
+	private class SlotPhotoBytes implements PhotoBytes {
+
+		private final Slot slot;
+
+		private final int length;
+
+		private final AtomicInteger references = new AtomicInteger(1);
+
+		public SlotPhotoBytes(Slot slot, int length) {
+			this.slot = slot;
+			this.length = length;
+		}
+
+		@Override
+		public int getLength() {
+			return this.length;
+		}
+
+		@Override
+		public InputStream openStream() {
+			while (true) {
+				int references = this.references.get();
+				if (references == 0) {
+					return null;
+				}
+				if (this.references.compareAndSet(references, references + 1)) {
+					return new SlotInputStream(this);
+				}
+			}
+		}
+
+		@Override
+		public void release() {
+			if (this.references.decrementAndGet() == 0) {
+				free(this.slot);
+			}
+		}
+
+	}
+
+	/**
+	 * {@link InputStream} that reads directly from a slot.
+	 */
+	private static class SlotInputStream extends InputStream {
+
+		private final SlotPhotoBytes bytes;
+
+		private final ByteBuffer buffer;
+
+		private int remaining;
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		public SlotInputStream(SlotPhotoBytes bytes) {
+			this.bytes = bytes;
+			this.buffer = bytes.slot.buffer.duplicate();
+			this.remaining = bytes.length;
+		}
+
+		@Override
+		public int read() {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			this.remaining--;
+			return this.buffer.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			len = Math.min(len, this.remaining);
+			this.buffer.get(b, off, len);
+			this.remaining -= len;
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, this.remaining));
+			this.buffer.position(this.buffer.position() + skipped);
+			this.remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return this.remaining;
+		}
+
+		@Override
+		public void close() {
+			if (this.closed.compareAndSet(false, true)) {
+				this.remaining = 0;
+				this.bytes.release();
+			}
+		}
+
+	}
+
+}
@@ -16,19 +16,42 @@
 
 package doge.service;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
 import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.util.StreamUtils;
 
 import doge.domain.DogePhoto;
 import doge.domain.DogePhotoRepository;
+import doge.domain.Rendition;
 import doge.domain.User;
+import doge.photo.AsyncPhotoManipulator;
 import doge.photo.Photo;
-import doge.photo.PhotoManipulator;
 
 /**
  * @author Josh Long
@@ -37,30 +60,697 @@ import doge.photo.PhotoManipulator;
 @Service
 public class DogeService {
 
+	/**
+	 * The maximum number of photos returned by {@link #getDogePhotos}.
+	 */
+	public static final int MAX_PAGE_SIZE = 100;
+
 	private final DogePhotoRepository dogePhotoRepository;
-	private final PhotoManipulator manipulator;
-	private final GridFsTemplate fs;
+	private final AsyncPhotoManipulator manipulator;
+	private final PhotoStore store;
+	private final PhotoCache cache;
+
+	private final int[] widths;
+
+	private final int defaultWidth;
+
+	private final AsyncTaskExecutor ioExecutor;
+
+	private final AsyncTaskExecutor importExecutor;
+
+	private final ReferenceCache<String, DogePhoto> references;
+
+	private final PhotoContentStore contents;
+
+	private final PipelineMetrics metrics;
 
 	@Autowired
 	public DogeService(DogePhotoRepository dogePhotoRepository,
-			PhotoManipulator manipulator, GridFsTemplate fs) {
+			AsyncPhotoManipulator manipulator, PhotoStore store, PhotoCache cache,
+			PhotoContentStore contents, PipelineMetrics metrics,
+			@Value("${doge.renditions:300}") int[] widths,
+			@Value("${doge.default-width:300}") int defaultWidth,
+			@Qualifier("photoIoExecutor") AsyncTaskExecutor ioExecutor,
+			@Qualifier("dogeImportExecutor") AsyncTaskExecutor importExecutor,
+			@Value("${doge.photos.reference-cache-size:10000}") int referenceCacheSize) {
+		Assert.isTrue(widths.length > 0, "Widths must not be empty");
 		this.dogePhotoRepository = dogePhotoRepository;
 		this.manipulator = manipulator;
-		this.fs = fs;
+		this.store = store;
+		this.cache = cache;
+		this.contents = contents;
+		this.metrics = metrics;
+		this.widths = widths.clone();
+		Arrays.sort(this.widths);
+		this.defaultWidth = defaultWidth;
+		this.ioExecutor = ioExecutor;
+		this.importExecutor = importExecutor;
+		this.references = new ReferenceCache<>(referenceCacheSize);
+	}
+
+	/**
+	 * Return a stored doge photo. The user is not loaded, file references are resolved
+	 * from the user and photo IDs with a single query or from recently resolved
+	 * references.
+	 * @param userId the ID of the user that added the photo
+	 * @param dogeId the ID of the doge photo
+	 * @param width the requested width or {@code null} for the default rendition
+	 * @return the stored photo or {@code null} if the photo does not exist
+	 * @throws IOException
+	 */
+	public StoredPhoto getDogePhoto(String userId, String dogeId, Integer width)
+			throws IOException {
+		int bestWidth = getBestWidth(width);
+		String cacheKey = getCacheKey(dogeId, bestWidth);
+		StoredPhoto cached = this.cache.get(cacheKey, userId);
+		if (cached != null) {
+			return meterDownload(cached);
+		}
+		return readDogePhoto(userId, dogeId, bestWidth, cacheKey);
+	}
+
+	/**
+	 * Read a doge photo that is not cached from the store, adding it to the cache if
+	 * possible.
+	 */
+	private StoredPhoto readDogePhoto(String userId, String dogeId, int bestWidth,
+			String cacheKey) throws IOException {
+		DogePhoto dogePhoto = getFileRefs(userId, dogeId);
+		if (dogePhoto == null) {
+			return null;
+		}
+		String fileRef = dogePhoto.getFileRef(bestWidth);
+		long start = System.nanoTime();
+		StoredPhoto stored = this.store.get(fileRef);
+		this.metrics.recordStoreLookup(System.nanoTime() - start);
+		if (stored == null) {
+			return null;
+		}
+		if (!isCacheable(stored)) {
+			return meterDownload(stored);
+		}
+		byte[] bytes;
+		start = System.nanoTime();
+		try (InputStream inputStream = stored.getInputStream()) {
+			bytes = StreamUtils.copyToByteArray(inputStream);
+		}
+		this.metrics.recordStoreRead(System.nanoTime() - start);
+		this.cache.put(cacheKey, userId, bytes, stored.getMd5(), stored.getUploadDate(),
+				stored);
+		return meterDownload(new StoredPhoto(() -> new ByteArrayInputStream(bytes),
+				bytes.length, stored.getMd5(), stored.getUploadDate()));
+	}
+
+	/**
+	 * Return if a stored photo should be cached. Photos in local files are not cached,
+	 * the operating system already caches them and they can be sent without a copy.
+	 */
+	private boolean isCacheable(StoredPhoto photo) {
+		return (photo.getFile() == null && this.cache.isCacheable(photo.getLength()));
+	}
+
+	private StoredPhoto meterDownload(StoredPhoto photo) {
+		return new StoredPhoto(this.metrics.meterDownload(photo), photo.getLength(),
+				photo.getMd5(), photo.getUploadDate(), photo.getFile());
+	}
+
+	/**
+	 * Return a stored doge photo without blocking the caller. Photos that are not cached
+	 * are read on the I/O executor.
+	 * @param userId the ID of the user that added the photo
+	 * @param dogeId the ID of the doge photo
+	 * @param width the requested width or {@code null} for the default rendition
+	 * @return a future completed with the stored photo or {@code null} if the photo
+	 * does not exist
+	 */
+	public CompletableFuture<StoredPhoto> getDogePhotoAsync(String userId,
+			String dogeId, Integer width) {
+		int bestWidth = getBestWidth(width);
+		String cacheKey = getCacheKey(dogeId, bestWidth);
+		StoredPhoto cached = this.cache.get(cacheKey, userId);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(meterDownload(cached));
+		}
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return readDogePhoto(userId, dogeId, bestWidth, cacheKey);
+			}
+			catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}, this.ioExecutor);
+	}
+
+	private DogePhoto getFileRefs(String userId, String dogeId) {
+		String key = getReferenceKey(userId, dogeId);
+		DogePhoto references = this.references.get(key);
+		if (references != null) {
+			return references;
+		}
+		references = this.dogePhotoRepository.findFileRefsByIdAndUserId(
+				dogeId, userId);
+		if (references == null) {
+			// photos stored before the user ID was recorded only have the DBRef
+			references = this.dogePhotoRepository.findOneByIdAndUser(dogeId, new User(
+					userId, null));
+		}
+		if (references != null) {
+			this.references.put(key, references);
+		}
+		return references;
+	}
+
+	private void forgetFileRefs(String userId, String dogeId) {
+		this.references.remove(getReferenceKey(userId, dogeId));
+	}
+
+	private int getBestWidth(Integer width) {
+		return DogePhoto.getBestWidth(this.widths,
+				(width != null ? width : this.defaultWidth));
 	}
 
-	public Photo getDogePhoto(User user, String dogeId) throws IOException {
-		DogePhoto dogePhoto = this.dogePhotoRepository.findOneByIdAndUser(dogeId, user);
-		return () -> this.fs.getResource(dogePhoto.getFileRef()).getInputStream();
+	/**
+	 * Return a page of the doge photos added by a user, newest first. Pages after the
+	 * first start after the last photo of the previous page.
+	 * @param userId the ID of the user
+	 * @param before the creation date of the last photo of the previous page or
+	 * {@code null} for the first page
+	 * @param beforeId the ID of the last photo of the previous page
+	 * @param limit the maximum number of photos, capped at {@value #MAX_PAGE_SIZE}
+	 * @return the photos
+	 */
+	public List<DogePhoto> getDogePhotos(String userId, Date before, String beforeId,
+			int limit) {
+		Pageable pageable = new PageRequest(0, Math.max(1, Math.min(limit,
+				MAX_PAGE_SIZE)), new Sort(Direction.DESC, "createdAt", "id"));
+		if (before == null) {
+			return this.dogePhotoRepository.findByUserId(userId, pageable);
+		}
+		return this.dogePhotoRepository.findByUserIdBefore(userId, before, new ObjectId(
+				beforeId), pageable);
 	}
 
 	public DogePhoto addDogePhoto(User user, Photo photo) throws IOException {
-		photo = this.manipulator.manipulate(photo);
-		String fileRef = UUID.randomUUID() + ".jpg";
-		try (InputStream inputStream = photo.getInputStream()) {
-			this.fs.store(inputStream, fileRef);
+		return addDogePhoto(null, user, photo);
+	}
+
+	/**
+	 * Add a doge photo using a specific ID. A rendition is stored for each configured
+	 * width, all from a single decode of the source photo. If the same source photo
+	 * has already been added with the same manipulation the existing renditions are
+	 * shared and the photo is not manipulated at all. Photos that are not a
+	 * {@link DigestedPhoto} are read once to digest them before being manipulated.
+	 * @param dogeId the ID of the doge photo or {@code null} to generate one
+	 * @param user the user adding the photo
+	 * @param photo the source photo
+	 * @return the saved doge photo
+	 * @throws IOException
+	 */
+	public DogePhoto addDogePhoto(String dogeId, User user, Photo photo)
+			throws IOException {
+		return saveDogePhoto(dogeId, user, storeUpload(photo, true));
+	}
+
+	/**
+	 * Add a doge photo without blocking the caller. The source photo is digested on the
+	 * I/O executor and, unless existing renditions can be shared, manipulated on the
+	 * manipulation executor. New renditions are then stored on the I/O executor.
+	 * @param user the user adding the photo
+	 * @param photo the source photo
+	 * @return a future completed with the saved doge photo
+	 */
+	public CompletableFuture<DogePhoto> addDogePhotoAsync(User user, Photo photo) {
+		this.metrics.uploadStarted();
+		return CompletableFuture.supplyAsync(() -> storeUploadAsync(photo),
+				this.ioExecutor).thenCompose((content) -> content).thenApplyAsync(
+				(content) -> saveDogePhoto(null, user, content), this.ioExecutor)
+				.whenComplete((doge, ex) -> this.metrics.uploadFinished());
+	}
+
+	private CompletableFuture<StoredContent> storeUploadAsync(Photo photo) {
+		try {
+			DigestedPhoto digested = digest(photo);
+			String contentId = getContentId(digested);
+			StoredContent shared = acquireContent(contentId);
+			if (shared != null) {
+				return CompletableFuture.completedFuture(shared);
+			}
+			return this.manipulator.manipulate(digested, this.widths).thenApplyAsync(
+					(manipulated) -> storeContent(contentId, manipulated),
+					this.ioExecutor);
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private StoredContent storeContent(String contentId, List<Photo> manipulated) {
+		try {
+			return addContent(contentId, storeRenditions(manipulated, true));
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private DogePhoto saveDogePhoto(String dogeId, User user, StoredContent content) {
+		DogePhoto doge;
+		try {
+			doge = this.dogePhotoRepository.save(createDogePhoto(dogeId, user, content));
+		}
+		catch (RuntimeException ex) {
+			discardContent(content);
+			throw ex;
+		}
+		forgetFileRefs(user.getId(), doge.getId());
+		for (StoredRendition rendition : content.getStoredRenditions()) {
+			StoredPhoto photo = rendition.getPhoto();
+			if (photo != null && isCacheable(photo)) {
+				RetainedBytes bytes = rendition.getBytes();
+				this.cache.put(getCacheKey(doge.getId(), rendition.getWidth()),
+						user.getId(), bytes.getBuffer(), bytes.getLength(),
+						photo.getMd5(), photo.getUploadDate(), photo);
+			}
+		}
+		return doge;
+	}
+
+	/**
+	 * Delete a doge photo. Renditions are deleted once no other photo shares them.
+	 * @param userId the ID of the user that added the photo
+	 * @param dogeId the ID of the doge photo
+	 * @return {@code true} if the photo was deleted or {@code false} if it does not
+	 * exist
+	 */
+	public boolean deleteDogePhoto(String userId, String dogeId) {
+		DogePhoto dogePhoto = getFileRefs(userId, dogeId);
+		if (dogePhoto == null || !deleteDocument(userId, dogeId)) {
+			return false;
+		}
+		forgetFileRefs(userId, dogeId);
+		for (int width : this.widths) {
+			this.cache.remove(getCacheKey(dogeId, width));
+		}
+		if (dogePhoto.getContentId() != null) {
+			deleteFiles(this.contents.release(dogePhoto.getContentId()));
+		}
+		else if (!dogePhoto.getRenditions().isEmpty()) {
+			deleteFiles(dogePhoto.getRenditions());
+		}
+		else {
+			this.store.delete(dogePhoto.getFileRef());
+		}
+		return true;
+	}
+
+	private boolean deleteDocument(String userId, String dogeId) {
+		if (this.dogePhotoRepository.deleteByIdAndUserId(dogeId, userId) > 0) {
+			return true;
+		}
+		// photos stored before the user ID was recorded only have the DBRef
+		User user = new User(userId, null);
+		return this.dogePhotoRepository.deleteByIdAndUser(dogeId, user) > 0;
+	}
+
+	private void deleteFiles(List<Rendition> renditions) {
+		for (Rendition rendition : renditions) {
+			this.store.delete(rendition.getFileRef());
+		}
+	}
+
+	/**
+	 * Add several doge photos. Photos are manipulated and stored in parallel on the
+	 * import executor, so that large batches do not hold up downloads on the I/O
+	 * executor, and the resulting documents are saved with a single bulk insert. Bulk
+	 * uploads are not added to the photo cache. If any photo fails none of the photos
+	 * are saved.
+	 * @param user the user adding the photos
+	 * @param photos the source photos
+	 * @return the saved doge photos, in the same order as the source photos
+	 * @throws IOException
+	 */
+	public List<DogePhoto> addDogePhotos(User user, List<Photo> photos)
+			throws IOException {
+		List<Future<StoredContent>> futures = new ArrayList<>(photos.size());
+		for (Photo photo : photos) {
+			futures.add(this.importExecutor.submit(() -> storeUpload(photo, false)));
+		}
+		List<StoredContent> stored = getAll(futures);
+		List<DogePhoto> doges = new ArrayList<>(stored.size());
+		for (StoredContent content : stored) {
+			doges.add(createDogePhoto(null, user, content));
+		}
+		List<DogePhoto> saved;
+		try {
+			saved = this.dogePhotoRepository.save(doges);
+		}
+		catch (RuntimeException ex) {
+			stored.forEach(this::discardContent);
+			throw ex;
+		}
+		for (DogePhoto doge : saved) {
+			forgetFileRefs(user.getId(), doge.getId());
+		}
+		return saved;
+	}
+
+	private List<StoredContent> getAll(List<Future<StoredContent>> futures)
+			throws IOException {
+		List<StoredContent> stored = new ArrayList<>(futures.size());
+		Throwable failure = null;
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				stored.add(futures.get(i).get());
+			}
+			catch (ExecutionException ex) {
+				failure = (failure != null ? failure : ex.getCause());
+			}
+			catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				futures.forEach((future) -> future.cancel(true));
+				stored.addAll(getCompleted(futures.subList(i, futures.size())));
+				failure = ex;
+				break;
+			}
+		}
+		if (failure == null) {
+			return stored;
+		}
+		for (StoredContent content : stored) {
+			discardContent(content);
+		}
+		if (failure instanceof IOException) {
+			throw (IOException) failure;
+		}
+		throw new IOException("Unable to add doge photos", failure);
+	}
+
+	/**
+	 * Return the results of the futures that have already completed successfully,
+	 * without waiting for those that have not.
+	 */
+	private List<StoredContent> getCompleted(List<Future<StoredContent>> futures) {
+		List<StoredContent> completed = new ArrayList<>();
+		for (Future<StoredContent> future : futures) {
+			if (future.isDone() && !future.isCancelled()) {
+				try {
+					completed.add(future.get());
+				}
+				catch (ExecutionException | InterruptedException ex) {
+					// nothing to discard
+				}
+			}
+		}
+		return completed;
+	}
+
+	private StoredContent storeUpload(Photo photo, boolean retainBytes)
+			throws IOException {
+		this.metrics.uploadStarted();
+		try {
+			DigestedPhoto digested = digest(photo);
+			String contentId = getContentId(digested);
+			StoredContent shared = acquireContent(contentId);
+			if (shared != null) {
+				return shared;
+			}
+			List<Photo> manipulated = manipulate(digested);
+			return addContent(contentId, storeRenditions(manipulated, retainBytes));
+		}
+		finally {
+			this.metrics.uploadFinished();
+		}
+	}
+
+	private DigestedPhoto digest(Photo photo) throws IOException {
+		DigestedPhoto digested = DigestedPhoto.digest(photo);
+		this.metrics.addUploadBytes(digested.getLength());
+		return digested;
+	}
+
+	/**
+	 * Return the ID of the content that manipulating the photo will produce. The ID
+	 * includes the {@link AsyncPhotoManipulator#getManipulationKey() manipulation key},
+	 * which changes whenever a text overlay is added or removed, so photos added after
+	 * such a change never share renditions with those added before it.
+	 */
+	private String getContentId(DigestedPhoto photo) {
+		StringBuilder contentId = new StringBuilder();
+		for (byte b : photo.getDigest()) {
+			contentId.append(String.format("%02x", b & 0xFF));
 		}
-		return this.dogePhotoRepository.save(new DogePhoto(user, fileRef));
+		contentId.append(":").append(this.manipulator.getManipulationKey());
+		for (int width : this.widths) {
+			contentId.append(":").append(width);
+		}
+		return contentId.toString();
+	}
+
+	private StoredContent acquireContent(String contentId) {
+		List<Rendition> renditions = this.contents.acquire(contentId);
+		if (renditions == null) {
+			return null;
+		}
+		List<StoredRendition> stored = new ArrayList<>(renditions.size());
+		for (Rendition rendition : renditions) {
+			stored.add(new StoredRendition(rendition, null, null));
+		}
+		return new StoredContent(contentId, stored);
+	}
+
+	private StoredContent addContent(String contentId, List<StoredRendition> stored) {
+		StoredContent content = new StoredContent(contentId, stored);
+		if (this.contents.add(contentId, content.getRenditions())) {
+			return content;
+		}
+		// the same photo was stored concurrently, share its renditions instead
+		StoredContent shared = acquireContent(contentId);
+		if (shared == null) {
+			return new StoredContent(null, stored);
+		}
+		deleteFiles(content.getRenditions());
+		return shared;
+	}
+
+	private void discardContent(StoredContent content) {
+		if (content.getContentId() == null) {
+			deleteFiles(content.getRenditions());
+		}
+		else {
+			deleteFiles(this.contents.release(content.getContentId()));
+		}
+	}
+
+	/**
+	 * Store the manipulated renditions. Each rendition is encoded straight into the
+	 * store, a single copy of the encoded bytes is only kept if they are to be cached.
+	 * If any rendition cannot be stored those already stored are deleted.
+	 */
+	private List<StoredRendition> storeRenditions(List<Photo> manipulated,
+			boolean retainBytes) throws IOException {
+		List<StoredRendition> stored = new ArrayList<>(this.widths.length);
+		try {
+			storeRenditions(manipulated, retainBytes, stored);
+		}
+		catch (IOException | RuntimeException ex) {
+			for (StoredRendition rendition : stored) {
+				this.store.delete(rendition.getFileRef());
+			}
+			throw ex;
+		}
+		return stored;
+	}
+
+	private void storeRenditions(List<Photo> manipulated, boolean retainBytes,
+			List<StoredRendition> stored) throws IOException {
+		for (int i = 0; i < this.widths.length; i++) {
+			String fileRef = UUID.randomUUID() + ".jpg";
+			RetainingPhoto retaining = (retainBytes ? new RetainingPhoto(
+					manipulated.get(i)) : null);
+			long start = System.nanoTime();
+			StoredPhoto photo = this.store.store(fileRef, (retaining != null ? retaining
+					: manipulated.get(i)));
+			this.metrics.recordStoreWrite(System.nanoTime() - start);
+			stored.add(new StoredRendition(new Rendition(this.widths[i], fileRef), photo,
+					(retaining != null ? retaining.getBytes() : null)));
+		}
+	}
+
+	/**
+	 * Manipulate the photo and wait for the result. Rendering happens on the CPU bound
+	 * manipulation executor so that it is isolated from the threads performing I/O.
+	 */
+	private List<Photo> manipulate(Photo photo) throws IOException {
+		Future<List<Photo>> future = this.manipulator.manipulate(photo, this.widths);
+		try {
+			return future.get();
+		}
+		catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException("Unable to manipulate doge photo", ex.getCause());
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			future.cancel(true);
+			throw new InterruptedIOException("Interrupted manipulating doge photo");
+		}
+	}
+
+	private DogePhoto createDogePhoto(String dogeId, User user, StoredContent content) {
+		List<Rendition> renditions = content.getRenditions();
+		int defaultIndex = Arrays.binarySearch(this.widths,
+				DogePhoto.getBestWidth(this.widths, this.defaultWidth));
+		return new DogePhoto(dogeId, user, renditions.get(defaultIndex).getFileRef(),
+				renditions, content.getContentId());
+	}
+
+	private String getCacheKey(String dogeId, int width) {
+		return dogeId + "@" + width;
+	}
+
+	private String getReferenceKey(String userId, String dogeId) {
+		return userId + "/" + dogeId;
+	}
+
+	/**
+	 * A {@link Rendition} that has been stored in the {@link PhotoStore}.
+	 */
+	private static class StoredRendition {
+
+		private final Rendition rendition;
+
+		private final StoredPhoto photo;
+
+		private final RetainedBytes bytes;
+
+		public StoredRendition(Rendition rendition, StoredPhoto photo,
+				RetainedBytes bytes) {
+			this.rendition = rendition;
+			this.photo = photo;
+			this.bytes = bytes;
+		}
+
+		public Rendition getRendition() {
+			return this.rendition;
+		}
+
+		public int getWidth() {
+			return this.rendition.getWidth();
+		}
+
+		public String getFileRef() {
+			return this.rendition.getFileRef();
+		}
+
+		public StoredPhoto getPhoto() {
+			return this.photo;
+		}
+
+		public RetainedBytes getBytes() {
+			return this.bytes;
+		}
+
+	}
+
+	/**
+	 * A {@link Photo} that keeps a copy of the bytes written from it, so that they can
+	 * be cached without being read back from the store. The buffer the bytes are
+	 * copied into is handed to the {@link PhotoCache} as is.
+	 */
+	private static class RetainingPhoto implements Photo {
+
+		private final Photo photo;
+
+		private RetainedBytes bytes;
+
+		public RetainingPhoto(Photo photo) {
+			this.photo = photo;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return this.photo.getInputStream();
+		}
+
+		@Override
+		public void writeTo(OutputStream outputStream) throws IOException {
+			RetainedBytes retained = new RetainedBytes();
+			this.photo.writeTo(new FilterOutputStream(outputStream) {
+
+				@Override
+				public void write(int b) throws IOException {
+					this.out.write(b);
+					retained.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					this.out.write(b, off, len);
+					retained.write(b, off, len);
+				}
+
+			});
+			this.bytes = retained;
+		}
+
+		public RetainedBytes getBytes() {
+			return this.bytes;
+		}
+
+	}
+
+	/**
+	 * {@link ByteArrayOutputStream} whose buffer can be used without being copied.
+	 */
+	private static class RetainedBytes extends ByteArrayOutputStream {
+
+		public RetainedBytes() {
+			super(8192);
+		}
+
+		public byte[] getBuffer() {
+			return this.buf;
+		}
+
+		public int getLength() {
+			return this.count;
+		}
+
+	}
+
+	/**
+	 * The {@link StoredRendition StoredRenditions} of a photo along with the ID of the
+	 * {@link doge.domain.PhotoContent} that shares them.
+	 */
+	private static class StoredContent {
+
+		private final String contentId;
+
+		private final List<StoredRendition> storedRenditions;
+
+		public StoredContent(String contentId, List<StoredRendition> storedRenditions) {
+			this.contentId = contentId;
+			this.storedRenditions = storedRenditions;
+		}
+
+		public String getContentId() {
+			return this.contentId;
+		}
+
+		public List<StoredRendition> getStoredRenditions() {
+			return this.storedRenditions;
+		}
+
+		public List<Rendition> getRenditions() {
+			List<Rendition> renditions = new ArrayList<>(this.storedRenditions.size());
+			for (StoredRendition rendition : this.storedRenditions) {
+				renditions.add(rendition.getRendition());
+			}
+			return renditions;
+		}
+
 	}
 
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import doge.domain.DogePhoto;
+import doge.domain.User;
+import doge.photo.Photo;
+
+/**
+ * Accepts doge photos for asynchronous processing. Uploads are digested as they are
+ * spooled to the configured spool directory and then manipulated and stored on a
+ * bounded worker pool, leaving request threads free. Capacity is reserved before an
+ * upload is spooled so that uploads are rejected without being copied when the
+ * pipeline is full. The {@link Status} of recently submitted uploads can be queried so
+ * that failures are visible to clients.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@Service
+public class DogeUploadPipeline {
+
+	private static final Log logger = LogFactory.getLog(DogeUploadPipeline.class);
+
+	private final DogeService dogeService;
+
+	private final AsyncTaskExecutor executor;
+
+	private final Path spoolDirectory;
+
+	private final Semaphore capacity;
+
+	private final Set<String> processing = ConcurrentHashMap.newKeySet();
+
+	private final Map<String, Boolean> failed;
+
+	@Autowired
+	public DogeUploadPipeline(DogeService dogeService,
+			@Qualifier("dogeUploadExecutor") AsyncTaskExecutor executor,
+			@Value("${doge.upload.spool-dir:${java.io.tmpdir}}") String spoolDirectory,
+			@Value("${doge.upload.pool-size:4}") int poolSize,
+			@Value("${doge.upload.queue-capacity:100}") int queueCapacity,
+			@Value("${doge.upload.failures-retained:1000}") int failuresRetained)
+			throws IOException {
+		this.dogeService = dogeService;
+		this.executor = executor;
+		this.spoolDirectory = Files.createDirectories(Paths.get(spoolDirectory));
+		this.capacity = new Semaphore(poolSize + queueCapacity);
+		this.failed = new LinkedHashMap<String, Boolean>() {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > failuresRetained;
+			}
+
+		};
+	}
+
+	/**
+	 * Submit a photo for processing. The photo is spooled before this method returns
+	 * so the source does not need to remain readable.
+	 * @param user the user adding the photo
+	 * @param photo the source photo
+	 * @param callback called once the doge photo has been stored
+	 * @return the ID that the doge photo will be stored under
+	 * @throws IOException if the photo cannot be spooled
+	 * @throws TaskRejectedException if the pipeline is at capacity
+	 */
+	public String submit(User user, Photo photo, Consumer<DogePhoto> callback)
+			throws IOException {
+		if (!this.capacity.tryAcquire()) {
+			throw new TaskRejectedException("Doge upload pipeline is at capacity");
+		}
+		String dogeId = ObjectId.get().toString();
+		Path spool = null;
+		try {
+			spool = Files.createTempFile(this.spoolDirectory, "doge-", ".upload");
+			execute(dogeId, user, DigestedPhoto.spool(photo, spool), spool, callback);
+			return dogeId;
+		}
+		catch (IOException | RuntimeException ex) {
+			this.processing.remove(dogeId);
+			this.capacity.release();
+			if (spool != null) {
+				delete(spool);
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Return the status of a submitted upload.
+	 * @param dogeId the ID returned from {@link #submit}
+	 * @return the status or {@code null} if the upload is not being processed and has
+	 * not recently failed
+	 */
+	public Status getStatus(String dogeId) {
+		if (this.processing.contains(dogeId)) {
+			return Status.PROCESSING;
+		}
+		synchronized (this.failed) {
+			return (this.failed.containsKey(dogeId) ? Status.FAILED : null);
+		}
+	}
+
+	private void execute(String dogeId, User user, DigestedPhoto source, Path spool,
+			Consumer<DogePhoto> callback) {
+		this.processing.add(dogeId);
+		this.executor.execute(() -> process(dogeId, user, source, spool, callback));
+	}
+
+	private void process(String dogeId, User user, DigestedPhoto source, Path spool,
+			Consumer<DogePhoto> callback) {
+		DogePhoto doge;
+		try {
+			doge = this.dogeService.addDogePhoto(dogeId, user, source);
+		}
+		catch (Exception ex) {
+			logger.error("Unable to process doge photo " + dogeId, ex);
+			synchronized (this.failed) {
+				this.failed.put(dogeId, Boolean.TRUE);
+			}
+			return;
+		}
+		finally {
+			this.processing.remove(dogeId);
+			this.capacity.release();
+			delete(spool);
+		}
+		try {
+			callback.accept(doge);
+		}
+		catch (RuntimeException ex) {
+			// the photo has been stored, it must not be reported as failed
+			logger.error("Unable to notify that doge photo " + dogeId + " was stored",
+					ex);
+		}
+	}
+
+	private void delete(Path spool) {
+		try {
+			Files.deleteIfExists(spool);
+		}
+		catch (IOException ex) {
+			logger.warn("Unable to delete spool file " + spool, ex);
+		}
+	}
+
+	/**
+	 * The status of an upload that has been submitted.
+	 */
+	public static enum Status {
+
+		/**
+		 * The upload is waiting to be, or is being, processed.
+		 */
+		PROCESSING,
+
+		/**
+		 * The upload could not be processed and will never be stored.
+		 */
+		FAILED
+
+	}
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+
+import org.springframework.util.Assert;
+
+import doge.photo.Photo;
+
+/**
+ * {@link PhotoStore} that keeps photos in a local directory, sharded into 256
+ * sub-directories. Photos are written straight to a temporary file which is renamed
+ * once complete, so readers never see a partially stored photo. The MD5 digest of each
+ * photo is computed as it is written and kept alongside it, the digest is written last
+ * and recomputed from the photo if it is missing. Stored photos expose their
+ * {@link StoredPhoto#getFile() file} so that they can be sent without being copied
+ * through the JVM.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class FileSystemPhotoStore implements PhotoStore {
+
+	private static final String MD5_SUFFIX = ".md5";
+
+	private final Path root;
+
+	public FileSystemPhotoStore(File root) {
+		Assert.notNull(root, "Root must not be null");
+		this.root = root.toPath();
+	}
+
+	@Override
+	public StoredPhoto store(String fileRef, Photo photo) throws IOException {
+		Path file = getPath(fileRef);
+		Files.createDirectories(file.getParent());
+		MessageDigest digest = createDigest();
+		Path temp = Files.createTempFile(file.getParent(), ".", ".tmp");
+		try {
+			write(photo, temp, digest);
+			String md5 = toHex(digest.digest());
+			Path md5File = getMd5Path(file);
+			Files.deleteIfExists(md5File);
+			Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+			writeAtomically(md5.getBytes(StandardCharsets.US_ASCII), md5File);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+		return get(fileRef);
+	}
+
+	private void writeAtomically(byte[] bytes, Path path) throws IOException {
+		Path temp = Files.createTempFile(path.getParent(), ".", ".tmp");
+		try {
+			try (FileOutputStream outputStream = new FileOutputStream(temp.toFile())) {
+				outputStream.write(bytes);
+				outputStream.getFD().sync();
+			}
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private void write(Photo photo, Path temp, MessageDigest digest) throws IOException {
+		try (FileOutputStream outputStream = new FileOutputStream(temp.toFile())) {
+			photo.writeTo(new DigestOutputStream(outputStream, digest));
+			outputStream.getFD().sync();
+		}
+	}
+
+	@Override
+	public StoredPhoto get(String fileRef) throws IOException {
+		Path file = getPath(fileRef);
+		BasicFileAttributes attributes;
+		String md5;
+		try {
+			attributes = Files.readAttributes(file, BasicFileAttributes.class);
+			md5 = readMd5(file);
+		}
+		catch (NoSuchFileException ex) {
+			return null;
+		}
+		return new StoredPhoto(() -> Files.newInputStream(file), attributes.size(), md5,
+				new Date(attributes.lastModifiedTime().toMillis()), file.toFile());
+	}
+
+	private String readMd5(Path file) throws IOException {
+		try {
+			return new String(Files.readAllBytes(getMd5Path(file)),
+					StandardCharsets.US_ASCII);
+		}
+		catch (NoSuchFileException ex) {
+			// The photo is in place but its digest has not been written yet
+			MessageDigest digest = createDigest();
+			try (InputStream inputStream = Files.newInputStream(file)) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			}
+			return toHex(digest.digest());
+		}
+	}
+
+	@Override
+	public void delete(String fileRef) {
+		Path file = getPath(fileRef);
+		try {
+			Files.deleteIfExists(file);
+			Files.deleteIfExists(getMd5Path(file));
+		}
+		catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private Path getPath(String fileRef) {
+		Assert.hasText(fileRef, "FileRef must not be empty");
+		Assert.isTrue(!fileRef.startsWith(".") && fileRef.indexOf('/') == -1
+				&& fileRef.indexOf('\\') == -1, "Invalid FileRef '" + fileRef + "'");
+		String shard = String.format("%02x", fileRef.hashCode() & 0xFF);
+		return this.root.resolve(shard).resolve(fileRef);
+	}
+
+	private Path getMd5Path(Path file) {
+		return file.resolveSibling(file.getFileName() + MD5_SUFFIX);
+	}
+
+	private MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	private String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return hex.toString();
+	}
+
+}
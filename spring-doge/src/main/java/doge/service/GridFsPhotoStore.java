@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.data.mongodb.MongoDbFactory;
+import org.springframework.util.Assert;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.gridfs.GridFS;
+import com.mongodb.gridfs.GridFSDBFile;
+import com.mongodb.gridfs.GridFSInputFile;
+
+import doge.photo.Photo;
+
+/**
+ * {@link PhotoStore} backed by Mongo GridFS. File references are used as GridFS file
+ * names. Photos are written straight into the GridFS upload stream, which splits them
+ * into chunks and computes their length and MD5 as they are written.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class GridFsPhotoStore implements PhotoStore {
+
+	private final MongoDbFactory mongoDbFactory;
+
+	public GridFsPhotoStore(MongoDbFactory mongoDbFactory) {
+		Assert.notNull(mongoDbFactory, "MongoDbFactory must not be null");
+		this.mongoDbFactory = mongoDbFactory;
+	}
+
+	@Override
+	public StoredPhoto store(String fileRef, Photo photo) throws IOException {
+		GridFS gridFs = getGridFs();
+		GridFSInputFile file = gridFs.createFile(fileRef);
+		OutputStream outputStream = file.getOutputStream();
+		try {
+			photo.writeTo(outputStream);
+		}
+		catch (IOException | RuntimeException ex) {
+			// closing the stream would save a partial file, remove the written chunks
+			gridFs.getChunksCollection().remove(new BasicDBObject("files_id",
+					file.getId()));
+			throw ex;
+		}
+		outputStream.close();
+		return new StoredPhoto(() -> getFile(fileRef).getInputStream(), file.getLength(),
+				file.getMD5(), file.getUploadDate());
+	}
+
+	@Override
+	public StoredPhoto get(String fileRef) throws IOException {
+		GridFSDBFile file = getGridFs().findOne(fileRef);
+		if (file == null) {
+			return null;
+		}
+		return new StoredPhoto(file::getInputStream, file.getLength(), file.getMD5(),
+				file.getUploadDate());
+	}
+
+	@Override
+	public void delete(String fileRef) {
+		getGridFs().remove(fileRef);
+	}
+
+	private GridFSDBFile getFile(String fileRef) throws IOException {
+		GridFSDBFile file = getGridFs().findOne(fileRef);
+		if (file == null) {
+			throw new FileNotFoundException("No stored photo '" + fileRef + "'");
+		}
+		return file;
+	}
+
+	private GridFS getGridFs() {
+		return new GridFS(this.mongoDbFactory.getDb());
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * {@link PhotoByteStore} that keeps bytes on the Java heap.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class HeapPhotoByteStore implements PhotoByteStore {
+
+	@Override
+	public boolean canStore(long length) {
+		return length <= Integer.MAX_VALUE;
+	}
+
+	@Override
+	public long getStoredLength(long length) {
+		return length;
+	}
+
+	@Override
+	public long getAvailableLength() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public PhotoBytes store(byte[] bytes, int length) {
+		return new PhotoBytes() {
+
+			@Override
+			public int getLength() {
+				return length;
+			}
+
+			@Override
+			public InputStream openStream() {
+				return new ByteArrayInputStream(bytes, 0, length);
+			}
+
+			@Override
+			public void release() {
+			}
+
+		};
+	}
+
+}
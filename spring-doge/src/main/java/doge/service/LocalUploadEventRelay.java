@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * {@link UploadEventRelay} that only delivers events to listeners on this node.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class LocalUploadEventRelay implements UploadEventRelay {
+
+	private static final Log logger = LogFactory.getLog(LocalUploadEventRelay.class);
+
+	private final List<Consumer<List<UploadEvent>>> listeners =
+			new CopyOnWriteArrayList<>();
+
+	@Override
+	public void relay(List<UploadEvent> events) {
+		deliver(events);
+	}
+
+	@Override
+	public void addListener(Consumer<List<UploadEvent>> listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Deliver events to the listeners on this node.
+	 * @param events the events to deliver
+	 */
+	protected void deliver(List<UploadEvent> events) {
+		for (Consumer<List<UploadEvent>> listener : this.listeners) {
+			try {
+				listener.accept(events);
+			}
+			catch (RuntimeException ex) {
+				logger.warn("Unable to deliver upload events", ex);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.Bytes;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * {@link UploadEventRelay} that shares events between nodes using a MongoDB capped
+ * collection. Each relayed batch is delivered to local listeners immediately and written
+ * as a single document. A tailable cursor on the collection delivers batches written by
+ * other nodes. The cursor is reopened after the last document seen if it dies, so no
+ * events are lost unless the capped collection wraps while a node is disconnected.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class MongoUploadEventRelay extends LocalUploadEventRelay implements
+		InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(MongoUploadEventRelay.class);
+
+	private static final long RETRY_MILLIS = 1000;
+
+	private final String nodeId = UUID.randomUUID().toString();
+
+	private final MongoTemplate mongoTemplate;
+
+	private final String collectionName;
+
+	private final long maxBytes;
+
+	private DBCollection collection;
+
+	private Thread tailer;
+
+	private volatile boolean running;
+
+	private volatile DBCursor cursor;
+
+	public MongoUploadEventRelay(MongoTemplate mongoTemplate, String collectionName,
+			long maxBytes) {
+		this.mongoTemplate = mongoTemplate;
+		this.collectionName = collectionName;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public void afterPropertiesSet() {
+		if (!this.mongoTemplate.collectionExists(this.collectionName)) {
+			this.mongoTemplate.getDb().createCollection(this.collectionName,
+					new BasicDBObject("capped", true).append("size", this.maxBytes));
+		}
+		this.collection = this.mongoTemplate.getCollection(this.collectionName);
+		ObjectId lastId = getNewestId();
+		this.running = true;
+		this.tailer = new CustomizableThreadFactory("doge-events-tail-")
+				.newThread(() -> tail(lastId));
+		this.tailer.setDaemon(true);
+		this.tailer.start();
+	}
+
+	@Override
+	public void relay(List<UploadEvent> events) {
+		super.relay(events);
+		List<DBObject> uploads = new ArrayList<>(events.size());
+		for (UploadEvent event : events) {
+			uploads.add(new BasicDBObject("dogePhotoUri", event.getDogePhotoUri())
+					.append("userId", event.getUserId())
+					.append("userName", event.getUserName()));
+		}
+		try {
+			this.collection.insert(new BasicDBObject("node", this.nodeId).append(
+					"uploads", uploads));
+		}
+		catch (RuntimeException ex) {
+			logger.warn("Unable to relay upload events to other nodes", ex);
+		}
+	}
+
+	private ObjectId getNewestId() {
+		try (DBCursor newest = this.collection.find()
+				.sort(new BasicDBObject("$natural", -1)).limit(1)) {
+			return (newest.hasNext() ? (ObjectId) newest.next().get("_id") : null);
+		}
+	}
+
+	private void tail(ObjectId lastId) {
+		while (this.running) {
+			try {
+				lastId = tailFrom(lastId);
+			}
+			catch (RuntimeException ex) {
+				if (this.running) {
+					logger.debug("Upload event cursor failed, reopening", ex);
+				}
+			}
+			sleepBeforeRetry();
+		}
+	}
+
+	/**
+	 * Tail the collection, delivering documents written after {@code lastId} until the
+	 * cursor dies. Documents are skipped until {@code lastId} has been seen so that
+	 * ordering relies only on the collection's insertion order. If {@code lastId} has
+	 * already been overwritten every document is delivered.
+	 */
+	private ObjectId tailFrom(ObjectId lastId) {
+		boolean skipping = (lastId != null && this.collection.count(new BasicDBObject(
+				"_id", lastId)) > 0);
+		try (DBCursor cursor = this.collection.find()
+				.addOption(Bytes.QUERYOPTION_TAILABLE)
+				.addOption(Bytes.QUERYOPTION_AWAITDATA)) {
+			this.cursor = cursor;
+			while (this.running && cursor.hasNext()) {
+				DBObject document = cursor.next();
+				ObjectId id = (ObjectId) document.get("_id");
+				if (skipping) {
+					skipping = !id.equals(lastId);
+					continue;
+				}
+				if (!this.nodeId.equals(document.get("node"))) {
+					deliver(getEvents(document));
+				}
+				lastId = id;
+			}
+		}
+		finally {
+			this.cursor = null;
+		}
+		return lastId;
+	}
+
+	private List<UploadEvent> getEvents(DBObject document) {
+		List<?> uploads = (List<?>) document.get("uploads");
+		List<UploadEvent> events = new ArrayList<>(uploads.size());
+		for (Object upload : uploads) {
+			DBObject dbObject = (DBObject) upload;
+			events.add(new UploadEvent((String) dbObject.get("dogePhotoUri"),
+					(String) dbObject.get("userId"), (String) dbObject.get("userName")));
+		}
+		return events;
+	}
+
+	private void sleepBeforeRetry() {
+		try {
+			Thread.sleep(RETRY_MILLIS);
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			this.running = false;
+		}
+	}
+
+	@Override
+	public void destroy() throws InterruptedException {
+		this.running = false;
+		DBCursor cursor = this.cursor;
+		if (cursor != null) {
+			cursor.close();
+		}
+		if (this.tailer != null) {
+			this.tailer.interrupt();
+			this.tailer.join(RETRY_MILLIS);
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+/**
+ * Storage for the bytes held by the {@link PhotoCache}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see HeapPhotoByteStore
+ * @see DirectPhotoByteStore
+ */
+public interface PhotoByteStore {
+
+	/**
+	 * Return if the store is able to hold a photo of the given length.
+	 * @param length the length in bytes
+	 * @return if the photo can be stored
+	 */
+	boolean canStore(long length);
+
+	/**
+	 * Return the number of bytes of storage that a photo of the given length occupies.
+	 * @param length the length in bytes
+	 * @return the stored length
+	 */
+	long getStoredLength(long length);
+
+	/**
+	 * Return the number of bytes of storage that are not currently occupied. Stores
+	 * that divide their storage may not be able to hold a single photo of this length.
+	 * @return the available length
+	 */
+	long getAvailableLength();
+
+	/**
+	 * Store the given bytes.
+	 * @param bytes the bytes to store
+	 * @return the stored bytes or {@code null} if the store is currently full
+	 */
+	default PhotoBytes store(byte[] bytes) {
+		return store(bytes, bytes.length);
+	}
+
+	/**
+	 * Store the start of the given buffer. Stores may hold on to the buffer, it must
+	 * not be changed afterwards.
+	 * @param bytes the buffer containing the bytes to store
+	 * @param length the number of bytes to store
+	 * @return the stored bytes or {@code null} if the store is currently full
+	 */
+	PhotoBytes store(byte[] bytes, int length);
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.InputStream;
+
+/**
+ * The bytes of a photo held in a {@link PhotoByteStore}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public interface PhotoBytes {
+
+	/**
+	 * @return the length of the photo in bytes
+	 */
+	int getLength();
+
+	/**
+	 * Open a stream to read the bytes. The bytes remain valid until the stream is
+	 * closed, even if they are released in the meantime.
+	 * @return a new stream or {@code null} if the bytes have already been released
+	 */
+	InputStream openStream();
+
+	/**
+	 * Release the bytes, returning the storage they occupy to the store once all open
+	 * streams have been closed.
+	 */
+	void release();
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import doge.photo.Photo;
+
+/**
+ * Size bounded cache of recently stored or viewed doge photos, keyed by doge ID and
+ * rendition width. Photos are evicted once the storage occupied by the cached bytes
+ * exceeds the configured maximum or the {@link PhotoByteStore} is full. The cache can
+ * be read and updated concurrently without locking. Eviction is approximately least
+ * recently used: a hand moves over the cached photos, sampling a few at a time and
+ * evicting the one that was read longest ago.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see ReferenceCache
+ */
+@Component
+public class PhotoCache {
+
+	private static final int EVICTION_SAMPLES = 16;
+
+	private final long maxBytes;
+
+	private final PhotoByteStore store;
+
+	private final Map<String, CachedPhoto> photos = new ConcurrentHashMap<>();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	private Iterator<Map.Entry<String, CachedPhoto>> hand;
+
+	private final Counter hits;
+
+	private final Counter misses;
+
+	private final Counter evictions;
+
+	@Autowired
+	public PhotoCache(MetricRegistry registry, PhotoByteStore store,
+			@Value("${doge.cache.max-bytes:67108864}") long maxBytes) {
+		Assert.notNull(store, "Store must not be null");
+		Assert.isTrue(maxBytes >= 0, "MaxBytes must not be negative");
+		this.maxBytes = maxBytes;
+		this.store = store;
+		this.hits = registry.counter("photo-cache.hits");
+		this.misses = registry.counter("photo-cache.misses");
+		this.evictions = registry.counter("photo-cache.evictions");
+		registry.register("photo-cache.size", (Gauge<Integer>) this.photos::size);
+		registry.register("photo-cache.bytes", (Gauge<Long>) this.bytes::get);
+	}
+
+	/**
+	 * Return a cached photo.
+	 * @param key the photo key
+	 * @param userId the ID of the user that must own the photo
+	 * @return the cached photo or {@code null}
+	 */
+	public StoredPhoto get(String key, String userId) {
+		CachedPhoto photo = this.photos.get(key);
+		if (photo == null || !photo.userId.equals(userId)) {
+			this.misses.inc();
+			return null;
+		}
+		photo.lastRead = System.nanoTime();
+		this.hits.inc();
+		return photo.toStoredPhoto();
+	}
+
+	/**
+	 * Add a photo to the cache. Photos larger than the cache itself are ignored.
+	 * @param key the photo key
+	 * @param userId the ID of the user that owns the photo
+	 * @param bytes the photo bytes
+	 * @param md5 the MD5 of the photo bytes
+	 * @param uploadDate the upload date of the photo
+	 * @param source the source of the photo, used if the cached bytes are evicted
+	 * while a read is in progress
+	 */
+	public void put(String key, String userId, byte[] bytes, String md5,
+			Date uploadDate, Photo source) {
+		put(key, userId, bytes, bytes.length, md5, uploadDate, source);
+	}
+
+	/**
+	 * Add a photo held at the start of a buffer to the cache. The buffer may be held
+	 * by the cache and must not be changed afterwards.
+	 * @param key the photo key
+	 * @param userId the ID of the user that owns the photo
+	 * @param bytes the buffer containing the photo bytes
+	 * @param length the length of the photo in bytes
+	 * @param md5 the MD5 of the photo bytes
+	 * @param uploadDate the upload date of the photo
+	 * @param source the source of the photo, used if the cached bytes are evicted
+	 * while a read is in progress
+	 */
+	public void put(String key, String userId, byte[] bytes, int length, String md5,
+			Date uploadDate, Photo source) {
+		if (!isCacheable(length)) {
+			return;
+		}
+		long storedLength = this.store.getStoredLength(length);
+		remove(key);
+		PhotoBytes stored = this.store.store(bytes, length);
+		while (stored == null && canMakeRoom(storedLength) && evict()) {
+			stored = this.store.store(bytes, length);
+		}
+		if (stored == null) {
+			return;
+		}
+		this.bytes.addAndGet(storedLength);
+		CachedPhoto previous = this.photos.put(key, new CachedPhoto(userId, stored, md5,
+				uploadDate, source));
+		if (previous != null) {
+			// the same photo was put concurrently
+			release(previous);
+		}
+		while (this.bytes.get() > this.maxBytes) {
+			if (!evict()) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Remove a photo from the cache.
+	 * @param key the photo key
+	 */
+	public void remove(String key) {
+		CachedPhoto previous = this.photos.remove(key);
+		if (previous != null) {
+			release(previous);
+		}
+	}
+
+	/**
+	 * Return if the cache would accept a photo of the given size.
+	 * @param length the length of the photo in bytes
+	 * @return if the photo can be cached
+	 */
+	public boolean isCacheable(long length) {
+		return this.store.canStore(length)
+				&& this.store.getStoredLength(length) <= this.maxBytes;
+	}
+
+	/**
+	 * Return if evicting cached photos could free enough storage for a photo of the
+	 * given stored length. Bytes still held by streams opened before eviction are not
+	 * released until those streams are closed.
+	 */
+	private boolean canMakeRoom(long storedLength) {
+		return this.store.getAvailableLength() >= storedLength - this.bytes.get();
+	}
+
+	private void release(CachedPhoto photo) {
+		this.bytes.addAndGet(-this.store.getStoredLength(photo.bytes.getLength()));
+		photo.bytes.release();
+	}
+
+	/**
+	 * Evict the photo read longest ago from the next few photos under the hand.
+	 * @return {@code true} if a photo was evicted or {@code false} if the cache is
+	 * empty or another thread is evicting
+	 */
+	private boolean evict() {
+		if (!this.evicting.compareAndSet(false, true)) {
+			return false;
+		}
+		try {
+			int samples = Math.min(EVICTION_SAMPLES, this.photos.size());
+			Map.Entry<String, CachedPhoto> eldest = null;
+			for (int i = 0; i < samples; i++) {
+				if (this.hand == null || !this.hand.hasNext()) {
+					this.hand = this.photos.entrySet().iterator();
+					if (!this.hand.hasNext()) {
+						break;
+					}
+				}
+				Map.Entry<String, CachedPhoto> entry = this.hand.next();
+				if (eldest == null
+						|| entry.getValue().lastRead - eldest.getValue().lastRead < 0) {
+					eldest = entry;
+				}
+			}
+			if (eldest == null
+					|| !this.photos.remove(eldest.getKey(), eldest.getValue())) {
+				return false;
+			}
+			release(eldest.getValue());
+			this.evictions.inc();
+			return true;
+		}
+		finally {
+			this.evicting.set(false);
+		}
+	}
+
+	/**
+	 * A single cached photo and when it was last read.
+	 */
+	private static class CachedPhoto {
+
+		private final String userId;
+
+		private final PhotoBytes bytes;
+
+		private final String md5;
+
+		private final Date uploadDate;
+
+		private final Photo source;
+
+		private volatile long lastRead = System.nanoTime();
+
+		public CachedPhoto(String userId, PhotoBytes bytes, String md5,
+				Date uploadDate, Photo source) {
+			this.userId = userId;
+			this.bytes = bytes;
+			this.md5 = md5;
+			this.uploadDate = uploadDate;
+			this.source = source;
+		}
+
+		public StoredPhoto toStoredPhoto() {
+			return new StoredPhoto(this::getInputStream, this.bytes.getLength(),
+					this.md5, this.uploadDate);
+		}
+
+		private InputStream getInputStream() throws IOException {
+			InputStream inputStream = this.bytes.openStream();
+			return (inputStream != null ? inputStream : this.source.getInputStream());
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import doge.domain.PhotoContent;
+import doge.domain.Rendition;
+
+import static org.springframework.data.mongodb.core.FindAndModifyOptions.options;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Reference counted store of {@link PhotoContent}. All updates are single atomic
+ * operations so that concurrent uploads and deletes of the same content never lose a
+ * reference.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@Component
+public class PhotoContentStore {
+
+	private final MongoOperations mongo;
+
+	@Autowired
+	public PhotoContentStore(MongoOperations mongo) {
+		this.mongo = mongo;
+	}
+
+	/**
+	 * Add a reference to existing content.
+	 * @param id the content ID
+	 * @return the renditions of the content or {@code null} if there is no such content
+	 */
+	public List<Rendition> acquire(String id) {
+		PhotoContent content = this.mongo.findAndModify(queryById(id),
+				new Update().inc("references", 1), PhotoContent.class);
+		return (content != null ? content.getRenditions() : null);
+	}
+
+	/**
+	 * Add new content with a single reference.
+	 * @param id the content ID
+	 * @param renditions the stored renditions
+	 * @return {@code true} if the content was added or {@code false} if content with
+	 * the same ID already exists
+	 */
+	public boolean add(String id, List<Rendition> renditions) {
+		try {
+			this.mongo.insert(new PhotoContent(id, renditions, 1));
+			return true;
+		}
+		catch (DuplicateKeyException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Remove a reference to content. The content is removed along with the last
+	 * reference.
+	 * @param id the content ID
+	 * @return the renditions that are no longer referenced and should be deleted, or an
+	 * empty list
+	 */
+	public List<Rendition> release(String id) {
+		PhotoContent content = this.mongo.findAndModify(queryById(id),
+				new Update().inc("references", -1), options().returnNew(true),
+				PhotoContent.class);
+		if (content == null || content.getReferences() > 0) {
+			return Collections.emptyList();
+		}
+		// only remove if the content wasn't acquired again in the meantime
+		Query unreferenced = queryById(id).addCriteria(where("references").lte(0));
+		if (this.mongo.remove(unreferenced, PhotoContent.class).getN() == 0) {
+			return Collections.emptyList();
+		}
+		return content.getRenditions();
+	}
+
+	private Query queryById(String id) {
+		return query(where("id").is(id));
+	}
+
+}
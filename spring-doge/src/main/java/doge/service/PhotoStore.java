@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.IOException;
+
+import doge.photo.Photo;
+
+/**
+ * Storage for the renditions of doge photos. Each stored photo is identified by a file
+ * reference chosen by the caller and is never modified once stored.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see GridFsPhotoStore
+ * @see FileSystemPhotoStore
+ */
+public interface PhotoStore {
+
+	/**
+	 * Store a photo.
+	 * @param fileRef the file reference of the photo
+	 * @param photo the photo to store
+	 * @return the stored photo
+	 * @throws IOException if the photo cannot be stored
+	 */
+	StoredPhoto store(String fileRef, Photo photo) throws IOException;
+
+	/**
+	 * Return a stored photo.
+	 * @param fileRef the file reference of the photo
+	 * @return the stored photo or {@code null} if there is no such photo
+	 * @throws IOException if the photo cannot be read
+	 */
+	StoredPhoto get(String fileRef) throws IOException;
+
+	/**
+	 * Delete a stored photo. Deleting a photo that does not exist has no effect.
+	 * @param fileRef the file reference of the photo
+	 */
+	void delete(String fileRef);
+
+}
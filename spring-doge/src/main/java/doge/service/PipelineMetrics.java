@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import doge.photo.Photo;
+import doge.photo.StageRecorder;
+
+/**
+ * Metrics for each stage of the doge pipeline, registered in the {@link MetricRegistry}
+ * under {@value #PREFIX}. Stage timers use a {@link RollingHistogramReservoir} so that
+ * recording does not allocate on the hot path.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@Component
+public class PipelineMetrics implements StageRecorder {
+
+	/**
+	 * The prefix of all pipeline metric names.
+	 */
+	public static final String PREFIX = "pipeline.";
+
+	private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+
+	private final Timer storeWrite;
+
+	private final Timer storeLookup;
+
+	private final Timer storeRead;
+
+	private final Timer stompPublish;
+
+	private final Counter uploadBytes;
+
+	private final Counter downloadBytes;
+
+	private final AtomicInteger uploadsInFlight = new AtomicInteger();
+
+	private final AtomicInteger downloadsInFlight = new AtomicInteger();
+
+	@Autowired
+	public PipelineMetrics(MetricRegistry registry,
+			@Value("${doge.metrics.window-seconds:60}") long windowSeconds) {
+		for (Stage stage : Stage.values()) {
+			this.stages.put(stage, register(registry, stage.name().toLowerCase(),
+					windowSeconds));
+		}
+		this.storeWrite = register(registry, "store-write", windowSeconds);
+		this.storeLookup = register(registry, "store-lookup", windowSeconds);
+		this.storeRead = register(registry, "store-read", windowSeconds);
+		this.stompPublish = register(registry, "stomp-publish", windowSeconds);
+		this.uploadBytes = registry.counter(PREFIX + "upload-bytes");
+		this.downloadBytes = registry.counter(PREFIX + "download-bytes");
+		registry.register(PREFIX + "uploads-in-flight",
+				(Gauge<Integer>) this.uploadsInFlight::get);
+		registry.register(PREFIX + "downloads-in-flight",
+				(Gauge<Integer>) this.downloadsInFlight::get);
+	}
+
+	private Timer register(MetricRegistry registry, String name, long windowSeconds) {
+		return registry.register(PREFIX + name, new Timer(new RollingHistogramReservoir(
+				windowSeconds, TimeUnit.SECONDS)));
+	}
+
+	@Override
+	public void record(Stage stage, long nanos) {
+		this.stages.get(stage).update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordStoreWrite(long nanos) {
+		this.storeWrite.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record the time taken to find a photo in the store, without reading its bytes.
+	 * @param nanos the elapsed time
+	 */
+	public void recordStoreLookup(long nanos) {
+		this.storeLookup.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record the time taken to read all the bytes of a photo found in the store.
+	 * Photos that are streamed to the client are metered as downloads instead.
+	 * @param nanos the elapsed time
+	 */
+	public void recordStoreRead(long nanos) {
+		this.storeRead.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public void recordStompPublish(long nanos) {
+		this.stompPublish.update(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Record the start of an upload. Must be followed by a call to
+	 * {@link #uploadFinished()}.
+	 */
+	public void uploadStarted() {
+		this.uploadsInFlight.incrementAndGet();
+	}
+
+	public void uploadFinished() {
+		this.uploadsInFlight.decrementAndGet();
+	}
+
+	public void addUploadBytes(long bytes) {
+		this.uploadBytes.inc(bytes);
+	}
+
+	/**
+	 * Return a {@link Photo} that counts the bytes read from it as downloaded. Each
+	 * input stream is in flight until it is closed.
+	 * @param photo the photo being downloaded
+	 * @return the metered photo
+	 */
+	public Photo meterDownload(Photo photo) {
+		return () -> new DownloadInputStream(photo.getInputStream());
+	}
+
+	/**
+	 * Count bytes downloaded without being read from a {@link #meterDownload(Photo)
+	 * metered photo}, for example files that are sent directly by the container.
+	 * @param bytes the number of bytes downloaded
+	 */
+	public void addDownloadBytes(long bytes) {
+		this.downloadBytes.inc(bytes);
+	}
+
+	/**
+	 * {@link InputStream} counting downloaded bytes.
+	 */
+	private class DownloadInputStream extends FilterInputStream {
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		public DownloadInputStream(InputStream in) {
+			super(in);
+			PipelineMetrics.this.downloadsInFlight.incrementAndGet();
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1) {
+				PipelineMetrics.this.downloadBytes.inc();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				PipelineMetrics.this.downloadBytes.inc(read);
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (this.closed.compareAndSet(false, true)) {
+				PipelineMetrics.this.downloadsInFlight.decrementAndGet();
+			}
+			super.close();
+		}
+
+	}
+
+}
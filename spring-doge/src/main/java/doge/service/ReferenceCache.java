@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.util.Assert;
+
+/**
+ * Size bounded cache that can be read and updated concurrently without locking. Entries
+ * are evicted in approximately least recently used order: when the cache is full a
+ * clock hand sweeps over the entries, removing those that have not been read since its
+ * last pass. The cache may briefly hold more than its maximum size while another
+ * thread is evicting.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+class ReferenceCache<K, V> {
+
+	private final int maxSize;
+
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean evicting = new AtomicBoolean();
+
+	private Iterator<Entry<V>> hand;
+
+	ReferenceCache(int maxSize) {
+		Assert.isTrue(maxSize >= 0, "MaxSize must not be negative");
+		this.maxSize = maxSize;
+	}
+
+	public V get(K key) {
+		Entry<V> entry = this.entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+		entry.referenced = true;
+		return entry.value;
+	}
+
+	public void put(K key, V value) {
+		this.entries.put(key, new Entry<>(value));
+		if (this.entries.size() > this.maxSize) {
+			evict();
+		}
+	}
+
+	public void remove(K key) {
+		this.entries.remove(key);
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	private void evict() {
+		if (!this.evicting.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			while (this.entries.size() > this.maxSize) {
+				if (this.hand == null || !this.hand.hasNext()) {
+					this.hand = this.entries.values().iterator();
+					if (!this.hand.hasNext()) {
+						return;
+					}
+				}
+				Entry<V> entry = this.hand.next();
+				if (entry.referenced) {
+					entry.referenced = false;
+				}
+				else {
+					this.hand.remove();
+				}
+			}
+		}
+		finally {
+			this.evicting.set(false);
+		}
+	}
+
+	/**
+	 * A cached value and whether it has been read since the clock hand last passed.
+	 */
+	private static class Entry<V> {
+
+		private final V value;
+
+		private volatile boolean referenced;
+
+		public Entry(V value) {
+			this.value = value;
+		}
+
+	}
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+
+/**
+ * A {@link Reservoir} that counts values in log-linear buckets, in the style of
+ * HdrHistogram, over a rolling time window. Values are kept to within about 3% and
+ * recording a value is a single atomic increment, nothing is allocated. The window is
+ * split into slices which are cleared and reused as time passes, so snapshots cover
+ * between the window less one slice and the whole window.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class RollingHistogramReservoir implements Reservoir {
+
+	private static final int SLICES = 6;
+
+	private static final int SUB_BUCKET_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final Slice[] slices = new Slice[SLICES];
+
+	private final long sliceTicks;
+
+	private final Clock clock;
+
+	public RollingHistogramReservoir(long window, TimeUnit unit) {
+		this(window, unit, Clock.defaultClock());
+	}
+
+	public RollingHistogramReservoir(long window, TimeUnit unit, Clock clock) {
+		Assert.isTrue(unit.toNanos(window) >= SLICES, "Window must not be empty");
+		this.sliceTicks = unit.toNanos(window) / SLICES;
+		this.clock = clock;
+		for (int i = 0; i < SLICES; i++) {
+			this.slices[i] = new Slice();
+		}
+	}
+
+	@Override
+	public int size() {
+		return getSnapshot().size();
+	}
+
+	@Override
+	public void update(long value) {
+		long period = this.clock.getTick() / this.sliceTicks;
+		Slice slice = this.slices[(int) Math.floorMod(period, SLICES)];
+		if (slice.period != period) {
+			slice.reset(period);
+		}
+		slice.counts.incrementAndGet(getBucket(Math.max(0, value)));
+	}
+
+	@Override
+	public Snapshot getSnapshot() {
+		long period = this.clock.getTick() / this.sliceTicks;
+		long[] counts = new long[BUCKETS];
+		for (Slice slice : this.slices) {
+			if (slice.period > period - SLICES) {
+				for (int i = 0; i < BUCKETS; i++) {
+					counts[i] += slice.counts.get(i);
+				}
+			}
+		}
+		return new BucketSnapshot(counts);
+	}
+
+	/**
+	 * Return the bucket for a value. Values below {@link #SUB_BUCKETS} each have their
+	 * own bucket, larger values share a bucket with others that have the same highest
+	 * bit and the same {@link #SUB_BUCKET_BITS} bits below it.
+	 */
+	static int getBucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * Return the value at the middle of a bucket.
+	 */
+	static long getBucketValue(int bucket) {
+		if (bucket < SUB_BUCKETS * 2) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return lowest + (1L << shift) / 2;
+	}
+
+	/**
+	 * Bucket counts for one slice of the window.
+	 */
+	private static class Slice {
+
+		private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+		private volatile long period = Long.MIN_VALUE;
+
+		public synchronized void reset(long period) {
+			if (this.period != period) {
+				for (int i = 0; i < BUCKETS; i++) {
+					this.counts.set(i, 0);
+				}
+				this.period = period;
+			}
+		}
+
+	}
+
+	/**
+	 * {@link Snapshot} of bucket counts.
+	 */
+	private static class BucketSnapshot extends Snapshot {
+
+		private final long[] counts;
+
+		private final long size;
+
+		public BucketSnapshot(long[] counts) {
+			this.counts = counts;
+			long size = 0;
+			for (long count : counts) {
+				size += count;
+			}
+			this.size = size;
+		}
+
+		@Override
+		public double getValue(double quantile) {
+			Assert.isTrue(quantile >= 0 && quantile <= 1, "Quantile must be in [0..1]");
+			if (this.size == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(quantile * this.size));
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= rank) {
+					return getBucketValue(i);
+				}
+			}
+			return getMax();
+		}
+
+		@Override
+		public long[] getValues() {
+			long[] values = new long[size()];
+			int index = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				for (long j = 0; j < this.counts[i] && index < values.length; j++) {
+					values[index++] = getBucketValue(i);
+				}
+			}
+			return values;
+		}
+
+		@Override
+		public int size() {
+			return (int) Math.min(Integer.MAX_VALUE, this.size);
+		}
+
+		@Override
+		public long getMax() {
+			for (int i = this.counts.length - 1; i >= 0; i--) {
+				if (this.counts[i] > 0) {
+					return getBucketValue(i);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public double getMean() {
+			if (this.size == 0) {
+				return 0;
+			}
+			double sum = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				sum += (double) getBucketValue(i) * this.counts[i];
+			}
+			return sum / this.size;
+		}
+
+		@Override
+		public long getMin() {
+			for (int i = 0; i < this.counts.length; i++) {
+				if (this.counts[i] > 0) {
+					return getBucketValue(i);
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public double getStdDev() {
+			if (this.size <= 1) {
+				return 0;
+			}
+			double mean = getMean();
+			double variance = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				double diff = getBucketValue(i) - mean;
+				variance += diff * diff * this.counts[i];
+			}
+			return Math.sqrt(variance / (this.size - 1));
+		}
+
+		@Override
+		public void dump(OutputStream output) {
+			PrintWriter writer = new PrintWriter(new OutputStreamWriter(output,
+					StandardCharsets.UTF_8));
+			for (long value : getValues()) {
+				writer.printf("%d%n", value);
+			}
+			writer.flush();
+		}
+
+	}
+
+}
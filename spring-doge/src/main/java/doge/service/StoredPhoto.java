@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+
+import org.springframework.util.Assert;
+
+import doge.photo.Photo;
+
+/**
+ * A {@link Photo} that has been stored, along with the details of the stored file.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class StoredPhoto implements Photo {
+
+	private final Photo photo;
+
+	private final long length;
+
+	private final String md5;
+
+	private final Date uploadDate;
+
+	private final File file;
+
+	public StoredPhoto(Photo photo, long length, String md5, Date uploadDate) {
+		this(photo, length, md5, uploadDate, null);
+	}
+
+	/**
+	 * Create a new {@link StoredPhoto} instance.
+	 * @param photo the photo
+	 * @param length the length of the photo in bytes
+	 * @param md5 the MD5 digest of the photo as a hex string
+	 * @param uploadDate the date that the photo was stored
+	 * @param file the local file containing the photo or {@code null}
+	 */
+	public StoredPhoto(Photo photo, long length, String md5, Date uploadDate, File file) {
+		Assert.notNull(photo, "Photo must not be null");
+		Assert.hasText(md5, "MD5 must not be empty");
+		Assert.notNull(uploadDate, "UploadDate must not be null");
+		this.photo = photo;
+		this.length = length;
+		this.md5 = md5;
+		this.uploadDate = uploadDate;
+		this.file = file;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return this.photo.getInputStream();
+	}
+
+	@Override
+	public void writeTo(OutputStream outputStream) throws IOException {
+		this.photo.writeTo(outputStream);
+	}
+
+	/**
+	 * Return a {@link Photo} containing only the given range of bytes.
+	 * @param start the first byte of the range
+	 * @param end the last byte of the range (inclusive)
+	 * @return the photo range
+	 */
+	public Photo getRange(long start, long end) {
+		Assert.isTrue(start >= 0 && start <= end && end < this.length,
+				"Range must be within the photo");
+		return () -> {
+			InputStream inputStream = getInputStream();
+			try {
+				skipFully(inputStream, start);
+			}
+			catch (IOException ex) {
+				inputStream.close();
+				throw ex;
+			}
+			return new RangeInputStream(inputStream, end - start + 1);
+		};
+	}
+
+	private void skipFully(InputStream inputStream, long count) throws IOException {
+		while (count > 0) {
+			long skipped = inputStream.skip(count);
+			if (skipped <= 0) {
+				if (inputStream.read() == -1) {
+					throw new EOFException();
+				}
+				skipped = 1;
+			}
+			count -= skipped;
+		}
+	}
+
+	/**
+	 * @return the length of the photo in bytes
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * @return the MD5 digest of the photo as a hex string
+	 */
+	public String getMd5() {
+		return this.md5;
+	}
+
+	/**
+	 * @return the date that the photo was stored
+	 */
+	public Date getUploadDate() {
+		return this.uploadDate;
+	}
+
+	/**
+	 * @return the local file containing the photo or {@code null} if the photo is not
+	 * stored in a file that can be sent directly
+	 */
+	public File getFile() {
+		return this.file;
+	}
+
+	/**
+	 * {@link InputStream} limited to a number of bytes.
+	 */
+	private static class RangeInputStream extends FilterInputStream {
+
+		private long remaining;
+
+		public RangeInputStream(InputStream in, long length) {
+			super(in);
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b != -1) {
+				this.remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (this.remaining <= 0) {
+				return -1;
+			}
+			int read = super.read(b, off, (int) Math.min(len, this.remaining));
+			if (read != -1) {
+				this.remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(Math.min(n, this.remaining));
+			this.remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), this.remaining);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.net.URI;
+
+import org.springframework.util.Assert;
+
+import doge.domain.User;
+
+/**
+ * Event published when a doge photo has been uploaded.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see UploadEventPublisher
+ */
+public class UploadEvent {
+
+	private final String dogePhotoUri;
+
+	private final String userId;
+
+	private final String userName;
+
+	public UploadEvent(User user, URI dogePhotoUri) {
+		Assert.notNull(user, "User must not be null");
+		Assert.notNull(dogePhotoUri, "DogePhotoUri must not be null");
+		this.dogePhotoUri = dogePhotoUri.toString();
+		this.userId = user.getId();
+		this.userName = user.getName();
+	}
+
+	UploadEvent(String dogePhotoUri, String userId, String userName) {
+		this.dogePhotoUri = dogePhotoUri;
+		this.userId = userId;
+		this.userName = userName;
+	}
+
+	public String getDogePhotoUri() {
+		return this.dogePhotoUri;
+	}
+
+	public String getUserId() {
+		return this.userId;
+	}
+
+	public String getUserName() {
+		return this.userName;
+	}
+
+}
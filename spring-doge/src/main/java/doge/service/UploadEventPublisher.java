@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+
+/**
+ * Publishes {@link UploadEvent UploadEvents} to '/topic/alarms'. Events are coalesced
+ * into batches that are sent when the configured window elapses or when the batch is
+ * full, whichever comes first, so that an upload storm results in a few large messages
+ * rather than one message per upload. Each message has an {@code uploadDate} and a list
+ * of {@code uploads}. Batches pass through an {@link UploadEventRelay} so that monitors
+ * connected to any node see uploads handled by every node.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@Component
+public class UploadEventPublisher implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(UploadEventPublisher.class);
+
+	private static final String DESTINATION = "/topic/alarms";
+
+	private final UploadEventRelay relay;
+
+	private final SimpMessagingTemplate messaging;
+
+	private final PipelineMetrics metrics;
+
+	private final int maxBatchSize;
+
+	private final ScheduledExecutorService scheduler;
+
+	private List<UploadEvent> pending = new ArrayList<>();
+
+	@Autowired
+	public UploadEventPublisher(UploadEventRelay relay, SimpMessagingTemplate messaging,
+			PipelineMetrics metrics,
+			@Value("${doge.events.window-millis:250}") long windowMillis,
+			@Value("${doge.events.max-batch-size:100}") int maxBatchSize) {
+		Assert.isTrue(maxBatchSize > 0, "MaxBatchSize must be positive");
+		this.relay = relay;
+		this.messaging = messaging;
+		this.metrics = metrics;
+		this.maxBatchSize = maxBatchSize;
+		this.scheduler = (windowMillis > 0 ? createScheduler(windowMillis) : null);
+		relay.addListener(this::send);
+	}
+
+	private ScheduledExecutorService createScheduler(long windowMillis) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(
+				"doge-events-");
+		threadFactory.setDaemon(true);
+		ScheduledExecutorService scheduler = Executors
+				.newSingleThreadScheduledExecutor(threadFactory);
+		scheduler.scheduleWithFixedDelay(this::flushQuietly, windowMillis, windowMillis,
+				TimeUnit.MILLISECONDS);
+		return scheduler;
+	}
+
+	public void publish(UploadEvent event) {
+		publish(Collections.singletonList(event));
+	}
+
+	/**
+	 * Publish events. Events are sent immediately if the batch is now full, otherwise
+	 * they are sent when the window elapses.
+	 * @param events the events to publish
+	 */
+	public void publish(List<UploadEvent> events) {
+		List<UploadEvent> batch = null;
+		synchronized (this) {
+			this.pending.addAll(events);
+			if (this.scheduler == null || this.pending.size() >= this.maxBatchSize) {
+				batch = takePending();
+			}
+		}
+		relay(batch);
+	}
+
+	/**
+	 * Send any pending events immediately.
+	 */
+	public void flush() {
+		List<UploadEvent> batch;
+		synchronized (this) {
+			batch = takePending();
+		}
+		relay(batch);
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		}
+		catch (Exception ex) {
+			logger.warn("Unable to publish upload events", ex);
+		}
+	}
+
+	private List<UploadEvent> takePending() {
+		List<UploadEvent> batch = this.pending;
+		this.pending = new ArrayList<>();
+		return batch;
+	}
+
+	private void relay(List<UploadEvent> batch) {
+		if (batch == null) {
+			return;
+		}
+		for (int i = 0; i < batch.size(); i += this.maxBatchSize) {
+			this.relay.relay(new ArrayList<>(batch.subList(i,
+					Math.min(i + this.maxBatchSize, batch.size()))));
+		}
+	}
+
+	private void send(List<UploadEvent> batch) {
+		Map<String, Object> msg = new LinkedHashMap<>();
+		msg.put("uploadDate", Instant.now().toString());
+		msg.put("uploads", batch);
+		long start = System.nanoTime();
+		this.messaging.convertAndSend(DESTINATION, msg);
+		this.metrics.recordStompPublish(System.nanoTime() - start);
+	}
+
+	@Override
+	public void destroy() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdown();
+		}
+		flush();
+	}
+
+}
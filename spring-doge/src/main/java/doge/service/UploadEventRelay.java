@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Relays batches of {@link UploadEvent UploadEvents} to every node running the
+ * application. Listeners are called for batches published on this node as well as for
+ * those published elsewhere.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see LocalUploadEventRelay
+ * @see MongoUploadEventRelay
+ */
+public interface UploadEventRelay {
+
+	/**
+	 * Relay a batch of events published on this node.
+	 * @param events the events to relay
+	 */
+	void relay(List<UploadEvent> events);
+
+	/**
+	 * Add a listener to be called with each batch of events received by this node.
+	 * @param listener the listener to add
+	 */
+	void addListener(Consumer<List<UploadEvent>> listener);
+
+}
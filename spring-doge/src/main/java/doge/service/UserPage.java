@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import org.springframework.util.Assert;
+
+/**
+ * A page of users, already serialized as a JSON array.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ * @see UserService
+ */
+public class UserPage {
+
+	private final byte[] json;
+
+	private final String md5;
+
+	private final String nextAfter;
+
+	public UserPage(byte[] json, String md5, String nextAfter) {
+		Assert.notNull(json, "Json must not be null");
+		Assert.hasText(md5, "MD5 must not be empty");
+		this.json = json;
+		this.md5 = md5;
+		this.nextAfter = nextAfter;
+	}
+
+	/**
+	 * Return the JSON array of users. The array must not be modified.
+	 * @return the JSON bytes
+	 */
+	public byte[] getJson() {
+		return this.json;
+	}
+
+	public String getMd5() {
+		return this.md5;
+	}
+
+	/**
+	 * Return the ID to pass as {@code after} for the next page or {@code null} if this
+	 * is the last page.
+	 * @return the ID of the last user on the page
+	 */
+	public String getNextAfter() {
+		return this.nextAfter;
+	}
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import doge.domain.User;
+
+/**
+ * Lists {@link User Users} a page at a time. Pages are ordered by ID and selected with
+ * an {@code after} cursor, so reading a page never has to skip over earlier users. Only
+ * the requested fields are read from Mongo. Recently listed pages are cached for a short
+ * time as serialized JSON.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+@Component
+public class UserService {
+
+	private static final Map<String, Function<User, Object>> FIELDS;
+	static {
+		Map<String, Function<User, Object>> fields = new LinkedHashMap<>();
+		fields.put("id", User::getId);
+		fields.put("name", User::getName);
+		FIELDS = fields;
+	}
+
+	private final MongoTemplate mongoTemplate;
+
+	private final JsonFactory jsonFactory;
+
+	private final int maxPageSize;
+
+	private final long cacheTimeToLive;
+
+	private final Map<String, CachedPage> cache;
+
+	@Autowired
+	public UserService(MongoTemplate mongoTemplate, ObjectMapper objectMapper,
+			@Value("${doge.users.max-page-size:1000}") int maxPageSize,
+			@Value("${doge.users.cache-ttl-millis:5000}") long cacheTimeToLive,
+			@Value("${doge.users.cache-size:256}") int cacheSize) {
+		Assert.isTrue(maxPageSize > 0, "MaxPageSize must be positive");
+		this.mongoTemplate = mongoTemplate;
+		this.jsonFactory = objectMapper.getFactory();
+		this.maxPageSize = maxPageSize;
+		this.cacheTimeToLive = cacheTimeToLive;
+		this.cache = new LinkedHashMap<String, CachedPage>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedPage> eldest) {
+				return size() > cacheSize;
+			}
+
+		};
+	}
+
+	/**
+	 * Return the maximum number of users on a single page.
+	 * @return the maximum page size
+	 */
+	public int getMaxPageSize() {
+		return this.maxPageSize;
+	}
+
+	/**
+	 * Return the time that a listed page is cached.
+	 * @return the time to live in milliseconds
+	 */
+	public long getCacheTimeToLive() {
+		return this.cacheTimeToLive;
+	}
+
+	/**
+	 * Return a page of users.
+	 * @param after the ID of the last user on the previous page or {@code null} for the
+	 * first page
+	 * @param limit the maximum number of users, capped at the maximum page size
+	 * @param fields the fields to include or {@code null} for all fields
+	 * @return the page
+	 * @throws IOException if the page cannot be serialized
+	 */
+	public UserPage getUsers(String after, int limit, Collection<String> fields)
+			throws IOException {
+		limit = Math.max(1, Math.min(limit, this.maxPageSize));
+		Collection<String> selected = getFields(fields);
+		String key = after + ":" + limit + ":" + selected;
+		long now = System.currentTimeMillis();
+		synchronized (this.cache) {
+			CachedPage cached = this.cache.get(key);
+			if (cached != null && cached.expires > now) {
+				return cached.page;
+			}
+		}
+		List<User> users = this.mongoTemplate.find(createQuery(after, limit, selected),
+				User.class);
+		ByteArrayOutputStream json = new ByteArrayOutputStream();
+		try (JsonGenerator generator = this.jsonFactory.createGenerator(json,
+				JsonEncoding.UTF8)) {
+			writeUsers(generator, users.iterator(), selected);
+		}
+		byte[] bytes = json.toByteArray();
+		String nextAfter = (users.size() == limit ? users.get(limit - 1).getId() : null);
+		UserPage page = new UserPage(bytes, DigestUtils.md5DigestAsHex(bytes), nextAfter);
+		if (this.cacheTimeToLive > 0) {
+			synchronized (this.cache) {
+				this.cache.put(key, new CachedPage(page, now + this.cacheTimeToLive));
+			}
+		}
+		return page;
+	}
+
+	/**
+	 * Write users as a JSON array while they are read from Mongo. Neither the users nor
+	 * the JSON are held in memory.
+	 * @param after the ID of the user to start after or {@code null} to start with the
+	 * first user
+	 * @param limit the maximum number of users or {@code null} for all users
+	 * @param fields the fields to include or {@code null} for all fields
+	 * @param outputStream the output stream to write to
+	 * @throws IOException if the users cannot be written
+	 */
+	public void writeUsers(String after, Integer limit, Collection<String> fields,
+			OutputStream outputStream) throws IOException {
+		Collection<String> selected = getFields(fields);
+		Query query = createQuery(after, (limit == null ? 0 : Math.max(1, limit)),
+				selected);
+		try (CloseableIterator<User> users = this.mongoTemplate.stream(query,
+				User.class);
+				JsonGenerator generator = this.jsonFactory.createGenerator(
+						outputStream, JsonEncoding.UTF8)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			writeUsers(generator, users, selected);
+		}
+	}
+
+	/**
+	 * Return the fields to include for a request.
+	 * @param fields the requested fields or {@code null} for all fields
+	 * @return the fields in a consistent order
+	 * @throws IllegalArgumentException if a requested field is unknown
+	 */
+	public List<String> getFields(Collection<String> fields) {
+		if (fields == null || fields.isEmpty()) {
+			return new ArrayList<>(FIELDS.keySet());
+		}
+		for (String field : fields) {
+			Assert.isTrue(FIELDS.containsKey(field), "Unknown user field '" + field
+					+ "', expecting one of " + FIELDS.keySet());
+		}
+		// keep a consistent order so that equivalent requests share a cache entry
+		return FIELDS.keySet().stream().filter(fields::contains)
+				.collect(Collectors.toList());
+	}
+
+	private Query createQuery(String after, int limit, Collection<String> fields) {
+		Query query = new Query();
+		if (after != null) {
+			query.addCriteria(Criteria.where("id").gt(after));
+		}
+		query.with(new Sort(Direction.ASC, "id"));
+		query.limit(limit);
+		fields.forEach(query.fields()::include);
+		return query;
+	}
+
+	private void writeUsers(JsonGenerator generator, Iterator<User> users,
+			Collection<String> fields) throws IOException {
+		generator.writeStartArray();
+		while (users.hasNext()) {
+			User user = users.next();
+			generator.writeStartObject();
+			for (String field : fields) {
+				generator.writeObjectField(field, FIELDS.get(field).apply(user));
+			}
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+	}
+
+	/**
+	 * A cached page and the time that it expires.
+	 */
+	private static class CachedPage {
+
+		private final UserPage page;
+
+		private final long expires;
+
+		public CachedPage(UserPage page, long expires) {
+			this.page = page;
+			this.expires = expires;
+		}
+
+	}
+
+}
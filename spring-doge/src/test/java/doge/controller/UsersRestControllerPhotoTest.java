@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.controller;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+
+import doge.domain.DogePhoto;
+import doge.domain.User;
+import doge.domain.UserRepository;
+import doge.photo.Photo;
+import doge.service.DogeService;
+import doge.service.DogeUploadPipeline;
+import doge.service.DogeUploadPipeline.Status;
+import doge.service.PipelineMetrics;
+import doge.service.StoredPhoto;
+import doge.service.UploadEvent;
+import doge.service.UploadEventPublisher;
+import doge.service.UserService;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.fileUpload;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
+
+/**
+ * Tests for the photo endpoints of {@link UsersRestController}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class UsersRestControllerPhotoTest {
+
+	private static final byte[] BYTES = "0123456789".getBytes();
+
+	private final UserRepository userRepository = mock(UserRepository.class);
+
+	private final DogeService dogeService = mock(DogeService.class);
+
+	private final UploadEventPublisher events = mock(UploadEventPublisher.class);
+
+	private final DogeUploadPipeline uploadPipeline = mock(DogeUploadPipeline.class);
+
+	private User user;
+
+	private MockMvc mvc;
+
+	@Before
+	public void setup() throws Exception {
+		this.user = new User("philwebb", "Phil Webb");
+		StoredPhoto photo = new StoredPhoto(() -> new ByteArrayInputStream(BYTES),
+				BYTES.length, "abc", new Date(0));
+		given(this.userRepository.findOne("philwebb")).willReturn(this.user);
+		given(this.dogeService.getDogePhoto("philwebb", "1", null)).willReturn(photo);
+		StoredPhoto thumbnail = new StoredPhoto(() -> new ByteArrayInputStream(
+				"thumb".getBytes()), 5, "def", new Date(0));
+		given(this.dogeService.getDogePhoto("philwebb", "1", 150)).willReturn(thumbnail);
+		UsersRestController controller = new UsersRestController(this.userRepository,
+				mock(UserService.class), this.dogeService,
+				this.uploadPipeline, this.events, mock(PipelineMetrics.class), false);
+		this.mvc = standaloneSetup(controller).build();
+	}
+
+	@Test
+	public void getPhoto() throws Exception {
+		this.mvc.perform(get("/users/philwebb/doge/1")).andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"abc\""))
+				.andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "10"))
+				.andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+				.andExpect(content().bytes(BYTES));
+	}
+
+	@Test
+	public void getFailedUpload() throws Exception {
+		given(this.uploadPipeline.getStatus("2")).willReturn(Status.FAILED);
+		this.mvc.perform(get("/users/philwebb/doge/2")).andExpect(status().isGone());
+		this.mvc.perform(get("/users/philwebb/doge/3")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void getPhotoWidth() throws Exception {
+		this.mvc.perform(get("/users/philwebb/doge/1?w=150")).andExpect(status().isOk())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"def\""))
+				.andExpect(content().bytes("thumb".getBytes()));
+	}
+
+	@Test
+	public void postPhotos() throws Exception {
+		List<DogePhoto> doges = Arrays.asList(new DogePhoto("a", this.user, "a.jpg"),
+				new DogePhoto("b", this.user, "b.jpg"));
+		given(this.dogeService.addDogePhotos(eq(this.user), anyListOf(Photo.class)))
+				.willReturn(doges);
+		this.mvc.perform(
+				fileUpload("/users/philwebb/doges").file(
+						new MockMultipartFile("file", "a.jpg", "image/jpeg", BYTES))
+						.file(new MockMultipartFile("file", "b.jpg", "image/jpeg", BYTES)))
+				.andExpect(status().isCreated())
+				.andExpect(content().string(containsString("/users/philwebb/doge/b")));
+		verify(this.events, times(1)).publish(anyListOf(UploadEvent.class));
+	}
+
+	@Test
+	public void getPhotos() throws Exception {
+		List<DogePhoto> doges = Arrays.asList(new DogePhoto("b", this.user, "b.jpg"),
+				new DogePhoto("a", this.user, "a.jpg"));
+		given(this.dogeService.getDogePhotos("philwebb", null, null, 2)).willReturn(
+				doges);
+		this.mvc.perform(get("/users/philwebb/doges?limit=2"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(containsString("/users/philwebb/doge/a")))
+				.andExpect(header().string("Link", containsString("before="
+						+ doges.get(1).getCreatedAt().getTime() + "-a&limit=2>")));
+	}
+
+	@Test
+	public void getPhotosWithMalformedCursor() throws Exception {
+		this.mvc.perform(get("/users/philwebb/doges?before=abc")).andExpect(
+				status().isBadRequest());
+	}
+
+	@Test
+	public void deletePhoto() throws Exception {
+		given(this.dogeService.deleteDogePhoto("philwebb", "1")).willReturn(true);
+		this.mvc.perform(delete("/users/philwebb/doge/1")).andExpect(
+				status().isNoContent());
+		this.mvc.perform(delete("/users/philwebb/doge/2")).andExpect(
+				status().isNotFound());
+	}
+
+	@Test
+	public void getMissingPhoto() throws Exception {
+		this.mvc.perform(get("/users/philwebb/doge/2")).andExpect(
+				status().isNotFound());
+	}
+
+	@Test
+	public void getPhotoIfNoneMatch() throws Exception {
+		this.mvc.perform(
+				get("/users/philwebb/doge/1").header(HttpHeaders.IF_NONE_MATCH, "\"abc\""))
+				.andExpect(status().isNotModified());
+	}
+
+	@Test
+	public void getPhotoRange() throws Exception {
+		this.mvc.perform(get("/users/philwebb/doge/1").header(HttpHeaders.RANGE, "bytes=2-4"))
+				.andExpect(status().isPartialContent())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 2-4/10"))
+				.andExpect(content().bytes("234".getBytes()));
+	}
+
+	@Test
+	public void getPhotoUnsatisfiableRange() throws Exception {
+		this.mvc.perform(
+				get("/users/philwebb/doge/1").header(HttpHeaders.RANGE, "bytes=20-30"))
+				.andExpect(status().isRequestedRangeNotSatisfiable())
+				.andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+	}
+
+}
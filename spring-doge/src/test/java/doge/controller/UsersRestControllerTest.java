@@ -16,6 +16,8 @@
 
 package doge.controller;
 
+import java.util.Arrays;
+
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -26,8 +28,8 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
@@ -39,12 +41,17 @@ import org.springframework.web.context.WebApplicationContext;
 import doge.domain.User;
 import doge.domain.UserRepository;
 import doge.service.DogeService;
+import doge.service.DogeUploadPipeline;
+import doge.service.UploadEventPublisher;
+import doge.service.UserPage;
+import doge.service.UserService;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.setup.MockMvcBuilders.webAppContextSetup;
 
@@ -66,6 +73,9 @@ public class UsersRestControllerTest {
 	@Autowired
 	private UserRepository userRepository;
 
+	@Autowired
+	private UserService userService;
+
 	@Autowired
 	private DogeService dogePhotoService;
 
@@ -76,6 +86,20 @@ public class UsersRestControllerTest {
 		this.mvc = webAppContextSetup(this.context).build();
 	}
 
+	@Test
+	public void getUsers() throws Exception {
+		byte[] json = "[{\"id\":\"philwebb\"}]".getBytes();
+		given(this.userService.getUsers(null, 1, Arrays.asList("id"))).willReturn(
+				new UserPage(json, "abc", "philwebb"));
+		ResultActions result = this.mvc.perform(get("/users?limit=1&fields=id")
+				.accept(MediaType.APPLICATION_JSON));
+		result.andExpect(status().isOk());
+		result.andExpect(header().string(HttpHeaders.ETAG, "\"abc\""));
+		result.andExpect(header().string("Link",
+				containsString("/users?after=philwebb&limit=1&fields=id>")));
+		result.andExpect(content().bytes(json));
+	}
+
 	@Test
 	@Ignore
 	public void getUser() throws Exception {
@@ -96,8 +120,8 @@ public class UsersRestControllerTest {
 class TestConfiguration {
 
 	@Bean
-	public SimpMessagingTemplate messageTemplate() {
-		return mock(SimpMessagingTemplate.class);
+	public UploadEventPublisher uploadEventPublisher() {
+		return mock(UploadEventPublisher.class);
 	}
 
 	@Bean
@@ -105,9 +129,19 @@ class TestConfiguration {
 		return mock(UserRepository.class);
 	}
 
+	@Bean
+	public UserService userService() {
+		return mock(UserService.class);
+	}
+
 	@Bean
 	public DogeService dogePhotoService() {
 		return mock(DogeService.class);
 	}
 
+	@Bean
+	public DogeUploadPipeline dogeUploadPipeline() {
+		return mock(DogeUploadPipeline.class);
+	}
+
 }
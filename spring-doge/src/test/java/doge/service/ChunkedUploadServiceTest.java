@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+
+import doge.domain.DogePhoto;
+import doge.domain.User;
+import doge.photo.Photo;
+import doge.service.ChunkedUploadException.Reason;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link ChunkedUploadService}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class ChunkedUploadServiceTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final DogeService dogeService = mock(DogeService.class);
+
+	private final User user = new User("philwebb", "Phil Webb");
+
+	private ChunkedUploadService service;
+
+	@Before
+	public void setup() throws Exception {
+		this.service = new ChunkedUploadService(this.dogeService, this.temp.getRoot()
+				.getPath(), 1024 * 1024, 100 * 100, 60);
+	}
+
+	@Test
+	public void uploadInChunks() throws Exception {
+		byte[] bytes = createJpeg(100, 80);
+		DogePhoto doge = new DogePhoto("1", this.user, "1.jpg");
+		given(this.dogeService.addDogePhoto(eq(this.user), any(Photo.class))).willReturn(
+				doge);
+		ChunkedUpload upload = this.service.start(this.user, bytes.length);
+		this.service.write(this.user, upload.getId(), 0, new ByteArrayInputStream(bytes,
+				0, 300));
+		assertThat(upload.getReceived(), equalTo(300L));
+		this.service.write(this.user, upload.getId(), 300, new ByteArrayInputStream(
+				bytes, 300, bytes.length - 300));
+		assertThat(upload.getWidth(), equalTo(100));
+		assertThat(upload.getHeight(), equalTo(80));
+		assertThat(this.service.complete(this.user, upload.getId()), equalTo(doge));
+		assertThat(this.service.get(this.user, upload.getId()), nullValue());
+		ArgumentCaptor<Photo> photo = ArgumentCaptor.forClass(Photo.class);
+		verify(this.dogeService).addDogePhoto(eq(this.user), photo.capture());
+		assertThat(((DigestedPhoto) photo.getValue()).getDigest(),
+				equalTo(MessageDigest.getInstance("SHA-256").digest(bytes)));
+	}
+
+	@Test
+	public void writeAtWrongOffset() throws Exception {
+		byte[] bytes = createJpeg(100, 80);
+		ChunkedUpload upload = this.service.start(this.user, bytes.length);
+		this.service.write(this.user, upload.getId(), 0, new ByteArrayInputStream(bytes,
+				0, 300));
+		try {
+			this.service.write(this.user, upload.getId(), 0, new ByteArrayInputStream(
+					bytes));
+			fail("Did not throw");
+		}
+		catch (ChunkedUploadException ex) {
+			assertThat(ex.getReason(), equalTo(Reason.OFFSET_MISMATCH));
+		}
+	}
+
+	@Test
+	public void rejectOversizedPhotoFromHeader() throws Exception {
+		byte[] bytes = createJpeg(200, 200);
+		ChunkedUpload upload = this.service.start(this.user, bytes.length);
+		try {
+			this.service.write(this.user, upload.getId(), 0, new ByteArrayInputStream(
+					bytes, 0, bytes.length / 2));
+			fail("Did not throw");
+		}
+		catch (ChunkedUploadException ex) {
+			assertThat(ex.getReason(), equalTo(Reason.TOO_LARGE));
+		}
+		assertThat(this.service.get(this.user, upload.getId()), nullValue());
+	}
+
+	@Test
+	public void completeIncompleteUpload() throws Exception {
+		byte[] bytes = createJpeg(100, 80);
+		ChunkedUpload upload = this.service.start(this.user, bytes.length);
+		try {
+			this.service.complete(this.user, upload.getId());
+			fail("Did not throw");
+		}
+		catch (ChunkedUploadException ex) {
+			assertThat(ex.getReason(), equalTo(Reason.INCOMPLETE));
+		}
+	}
+
+	@Test
+	public void keepUploadWhenCompleteFails() throws Exception {
+		byte[] bytes = createJpeg(100, 80);
+		DogePhoto doge = new DogePhoto("1", this.user, "1.jpg");
+		given(this.dogeService.addDogePhoto(eq(this.user), any(Photo.class))).willThrow(
+				new IOException("Store unavailable")).willReturn(doge);
+		ChunkedUpload upload = this.service.start(this.user, bytes.length);
+		this.service.write(this.user, upload.getId(), 0, new ByteArrayInputStream(bytes));
+		try {
+			this.service.complete(this.user, upload.getId());
+			fail("Did not throw");
+		}
+		catch (IOException ex) {
+			assertThat(this.service.get(this.user, upload.getId()), equalTo(upload));
+		}
+		assertThat(this.service.complete(this.user, upload.getId()), equalTo(doge));
+		assertThat(this.service.get(this.user, upload.getId()), nullValue());
+	}
+
+	@Test
+	public void discardExpiredUploads() throws Exception {
+		this.service = new ChunkedUploadService(this.dogeService, this.temp.getRoot()
+				.getPath(), 1024 * 1024, 100 * 100, 0);
+		ChunkedUpload upload = this.service.start(this.user, 100);
+		Thread.sleep(10);
+		this.service.discardExpired();
+		assertThat(this.service.get(this.user, upload.getId()), nullValue());
+		assertThat(upload.getSpool().toFile().exists(), equalTo(false));
+	}
+
+	private byte[] createJpeg(int width, int height) throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB),
+				"jpeg", outputStream);
+		return outputStream.toByteArray();
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.InputStream;
+
+import org.junit.Test;
+import org.springframework.util.StreamUtils;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link DirectPhotoByteStore}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class DirectPhotoByteStoreTest {
+
+	@Test
+	public void storeAndRead() throws Exception {
+		DirectPhotoByteStore store = new DirectPhotoByteStore(1024 * 1024);
+		byte[] bytes = createBytes(10000);
+		PhotoBytes stored = store.store(bytes);
+		assertThat(stored.getLength(), equalTo(10000));
+		try (InputStream inputStream = stored.openStream()) {
+			assertArrayEquals(bytes, StreamUtils.copyToByteArray(inputStream));
+		}
+	}
+
+	@Test
+	public void allocatesUpToCapacity() throws Exception {
+		DirectPhotoByteStore store = new DirectPhotoByteStore(8 * 1024);
+		assertThat(store.store(createBytes(4096)), notNullValue());
+		assertThat(store.store(createBytes(4096)), notNullValue());
+		assertThat(store.store(createBytes(4096)), nullValue());
+		assertThat(store.getAllocatedBytes(), equalTo(8 * 1024L));
+	}
+
+	@Test
+	public void releasedSlotIsReused() throws Exception {
+		DirectPhotoByteStore store = new DirectPhotoByteStore(4 * 1024);
+		PhotoBytes stored = store.store(createBytes(1000));
+		assertThat(store.store(createBytes(1000)), nullValue());
+		stored.release();
+		assertThat(stored.openStream(), nullValue());
+		assertThat(store.store(createBytes(1000)), notNullValue());
+	}
+
+	@Test
+	public void slotIsHeldUntilStreamIsClosed() throws Exception {
+		DirectPhotoByteStore store = new DirectPhotoByteStore(4 * 1024);
+		byte[] bytes = createBytes(1000);
+		PhotoBytes stored = store.store(bytes);
+		InputStream inputStream = stored.openStream();
+		stored.release();
+		assertThat(store.store(createBytes(1000)), nullValue());
+		assertArrayEquals(bytes, StreamUtils.copyToByteArray(inputStream));
+		inputStream.close();
+		assertThat(store.store(createBytes(1000)), notNullValue());
+	}
+
+	@Test
+	public void mixesSizeClassesAfterReachingCapacity() throws Exception {
+		DirectPhotoByteStore store = new DirectPhotoByteStore(16 * 1024);
+		PhotoBytes[] small = new PhotoBytes[4];
+		for (int i = 0; i < small.length; i++) {
+			small[i] = store.store(createBytes(4096));
+		}
+		assertThat(store.store(createBytes(8192)), nullValue());
+		small[1].release();
+		small[2].release();
+		assertThat(store.store(createBytes(8192)), nullValue());
+		small[0].release();
+		byte[] bytes = createBytes(8192);
+		PhotoBytes large = store.store(bytes);
+		try (InputStream inputStream = large.openStream()) {
+			assertArrayEquals(bytes, StreamUtils.copyToByteArray(inputStream));
+		}
+		assertThat(store.store(createBytes(4096)), notNullValue());
+		assertThat(store.store(createBytes(4096)), nullValue());
+		assertThat(store.getAvailableLength(), equalTo(0L));
+	}
+
+	@Test
+	public void releasedSlabIsReturnedForAnySlotSize() throws Exception {
+		DirectPhotoByteStore store = new DirectPhotoByteStore(8 * 1024);
+		PhotoBytes first = store.store(createBytes(1000));
+		PhotoBytes second = store.store(createBytes(1000));
+		first.release();
+		second.release();
+		assertThat(store.getAllocatedBytes(), equalTo(0L));
+		assertThat(store.store(createBytes(8192)), notNullValue());
+	}
+
+	@Test
+	public void cannotStoreLargePhotos() throws Exception {
+		DirectPhotoByteStore store = new DirectPhotoByteStore(64 * 1024 * 1024);
+		assertThat(store.canStore(2 * 1024 * 1024), equalTo(false));
+		assertThat(store.store(createBytes(2 * 1024 * 1024)), nullValue());
+	}
+
+	private byte[] createBytes(int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) i;
+		}
+		return bytes;
+	}
+
+}
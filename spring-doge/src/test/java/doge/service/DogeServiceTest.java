@@ -0,0 +1,181 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+
+import com.codahale.metrics.MetricRegistry;
+
+import doge.domain.DogePhoto;
+import doge.domain.DogePhotoRepository;
+import doge.domain.Rendition;
+import doge.domain.User;
+import doge.photo.AsyncPhotoManipulator;
+import doge.photo.Photo;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link DogeService}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class DogeServiceTest {
+
+	private final DogePhotoRepository repository = mock(DogePhotoRepository.class);
+
+	private final PhotoStore store = mock(PhotoStore.class);
+
+	private final PhotoContentStore contents = mock(PhotoContentStore.class);
+
+	private final ReadingManipulator manipulator = new ReadingManipulator();
+
+	private final DogeService service = new DogeService(this.repository,
+			this.manipulator, this.store, new PhotoCache(new MetricRegistry(),
+					new HeapPhotoByteStore(), 1024 * 1024), this.contents,
+			new PipelineMetrics(new MetricRegistry(), 60), new int[] { 150, 300 }, 300,
+			new ConcurrentTaskExecutor(Runnable::run),
+			new ConcurrentTaskExecutor(Runnable::run), 100);
+
+	private final User user = new User("philwebb", "Phil Webb");
+
+	private final Photo photo = () -> new ByteArrayInputStream("doge".getBytes());
+
+	@Test
+	public void deletesStoredRenditionsWhenLaterRenditionFails() throws Exception {
+		List<String> fileRefs = new ArrayList<>();
+		given(this.store.store(any(String.class), any(Photo.class))).willAnswer(
+				(invocation) -> {
+					if (!fileRefs.isEmpty()) {
+						throw new IOException("Store failed");
+					}
+					fileRefs.add((String) invocation.getArguments()[0]);
+					return new StoredPhoto(this.photo, 4, "md5", new Date());
+				});
+		try {
+			this.service.addDogePhoto(this.user, this.photo);
+			fail("Did not throw");
+		}
+		catch (IOException ex) {
+			verify(this.store).delete(fileRefs.get(0));
+			verify(this.contents, never()).add(any(String.class), any(List.class));
+		}
+	}
+
+	@Test
+	public void sharesContentWithoutManipulating() throws Exception {
+		List<Rendition> renditions = Arrays.asList(new Rendition(150, "150.jpg"),
+				new Rendition(300, "300.jpg"));
+		given(this.contents.acquire(any(String.class))).willReturn(renditions);
+		given(this.repository.save(any(DogePhoto.class))).willAnswer(
+				(invocation) -> invocation.getArguments()[0]);
+		DogePhoto doge = this.service.addDogePhoto(this.user, this.photo);
+		ArgumentCaptor<String> contentId = ArgumentCaptor.forClass(String.class);
+		verify(this.contents).acquire(contentId.capture());
+		assertThat(contentId.getValue(), startsWith(sha256("doge") + ":"));
+		assertThat(doge.getContentId(), equalTo(contentId.getValue()));
+		assertThat(this.manipulator.getManipulations(), equalTo(0));
+		verify(this.store, never()).store(any(String.class), any(Photo.class));
+	}
+
+	@Test
+	public void releasesContentWhenSaveFails() throws Exception {
+		List<Rendition> renditions = Arrays.asList(new Rendition(150, "150.jpg"),
+				new Rendition(300, "300.jpg"));
+		given(this.contents.acquire(any(String.class))).willReturn(renditions);
+		given(this.contents.release(any(String.class))).willReturn(renditions);
+		given(this.repository.save(any(DogePhoto.class))).willThrow(
+				new IllegalStateException("Save failed"));
+		try {
+			this.service.addDogePhoto(this.user, this.photo);
+			fail("Did not throw");
+		}
+		catch (IllegalStateException ex) {
+			ArgumentCaptor<String> contentId = ArgumentCaptor.forClass(String.class);
+			verify(this.contents).acquire(contentId.capture());
+			verify(this.contents).release(contentId.getValue());
+			verify(this.store).delete("150.jpg");
+			verify(this.store).delete("300.jpg");
+		}
+	}
+
+	private String sha256(String source) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes());
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest) {
+			hex.append(String.format("%02x", b & 0xFF));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * {@link AsyncPhotoManipulator} that reads only the start of the source photo, as
+	 * an image decoder may.
+	 */
+	private static class ReadingManipulator implements AsyncPhotoManipulator {
+
+		private int manipulations;
+
+		@Override
+		public CompletableFuture<List<Photo>> manipulate(Photo photo, int... widths) {
+			this.manipulations++;
+			try (InputStream inputStream = photo.getInputStream()) {
+				inputStream.read();
+			}
+			catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+			List<Photo> photos = new ArrayList<>();
+			for (int width : widths) {
+				photos.add(() -> new ByteArrayInputStream(new byte[width]));
+			}
+			return CompletableFuture.completedFuture(photos);
+		}
+
+		@Override
+		public String getManipulationKey() {
+			return "test";
+		}
+
+		public int getManipulations() {
+			return this.manipulations;
+		}
+
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+
+import doge.domain.DogePhoto;
+import doge.domain.User;
+import doge.photo.Photo;
+import doge.service.DogeUploadPipeline.Status;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link DogeUploadPipeline}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class DogeUploadPipelineTest {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private final DogeService dogeService = mock(DogeService.class);
+
+	private final List<Runnable> tasks = new ArrayList<>();
+
+	private DogeUploadPipeline pipeline;
+
+	private final User user = new User("philwebb", "Phil Webb");
+
+	private final AtomicInteger reads = new AtomicInteger();
+
+	private final Photo photo = () -> {
+		this.reads.incrementAndGet();
+		return new ByteArrayInputStream("doge".getBytes());
+	};
+
+	@Before
+	public void setup() throws Exception {
+		this.pipeline = new DogeUploadPipeline(this.dogeService,
+				new ConcurrentTaskExecutor(this.tasks::add), this.temp.getRoot()
+						.getPath(), 1, 1, 10);
+	}
+
+	@Test
+	public void rejectsBeforeSpoolingWhenFull() throws Exception {
+		this.pipeline.submit(this.user, this.photo, (doge) -> {
+		});
+		this.pipeline.submit(this.user, this.photo, (doge) -> {
+		});
+		try {
+			this.pipeline.submit(this.user, this.photo, (doge) -> {
+			});
+			fail("Did not reject");
+		}
+		catch (TaskRejectedException ex) {
+			assertThat(this.reads.get(), equalTo(2));
+		}
+		this.tasks.remove(0).run();
+		this.pipeline.submit(this.user, this.photo, (doge) -> {
+		});
+	}
+
+	@Test
+	public void failedUploadIsObservable() throws Exception {
+		given(this.dogeService.addDogePhoto(any(String.class), eq(this.user),
+				any(Photo.class))).willThrow(new IOException("Bad photo"));
+		String dogeId = this.pipeline.submit(this.user, this.photo, (doge) -> {
+		});
+		assertThat(this.pipeline.getStatus(dogeId), equalTo(Status.PROCESSING));
+		this.tasks.remove(0).run();
+		assertThat(this.pipeline.getStatus(dogeId), equalTo(Status.FAILED));
+		assertThat(this.pipeline.getStatus("other"), nullValue());
+	}
+
+	@Test
+	public void failedCallbackDoesNotFailUpload() throws Exception {
+		given(this.dogeService.addDogePhoto(any(String.class), eq(this.user),
+				any(Photo.class))).willReturn(new DogePhoto(this.user, "1.jpg"));
+		String dogeId = this.pipeline.submit(this.user, this.photo, (doge) -> {
+			throw new IllegalStateException("Publish failed");
+		});
+		assertThat(this.temp.getRoot().list().length, equalTo(1));
+		this.tasks.remove(0).run();
+		assertThat(this.pipeline.getStatus(dogeId), nullValue());
+		assertThat(this.temp.getRoot().list().length, equalTo(0));
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link FileSystemPhotoStore}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class FileSystemPhotoStoreTest {
+
+	private static final byte[] BYTES = "doge".getBytes();
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private FileSystemPhotoStore store;
+
+	@Before
+	public void setup() throws Exception {
+		this.store = new FileSystemPhotoStore(this.temp.getRoot());
+	}
+
+	@Test
+	public void storeAndGet() throws Exception {
+		StoredPhoto stored = this.store.store("a.jpg", () -> new ByteArrayInputStream(
+				BYTES));
+		assertThat(stored.getLength(), equalTo((long) BYTES.length));
+		assertThat(stored.getMd5(), equalTo(DigestUtils.md5DigestAsHex(BYTES)));
+		StoredPhoto photo = this.store.get("a.jpg");
+		assertThat(photo.getMd5(), equalTo(stored.getMd5()));
+		assertThat(photo.getFile(), equalTo(stored.getFile()));
+		try (InputStream inputStream = photo.getInputStream()) {
+			assertArrayEquals(BYTES, StreamUtils.copyToByteArray(inputStream));
+		}
+	}
+
+	@Test
+	public void storeLeavesOnlyPhotoAndDigest() throws Exception {
+		File file = this.store.store("a.jpg", () -> new ByteArrayInputStream(BYTES))
+				.getFile();
+		assertThat(file.getParentFile().getParentFile(), equalTo(this.temp.getRoot()));
+		assertThat(file.getParentFile().list().length, equalTo(2));
+	}
+
+	@Test
+	public void getWithoutDigest() throws Exception {
+		File file = this.store.store("a.jpg", () -> new ByteArrayInputStream(BYTES))
+				.getFile();
+		new File(file.getPath() + ".md5").delete();
+		StoredPhoto photo = this.store.get("a.jpg");
+		assertThat(photo.getMd5(), equalTo(DigestUtils.md5DigestAsHex(BYTES)));
+	}
+
+	@Test
+	public void getMissing() throws Exception {
+		assertThat(this.store.get("missing.jpg"), nullValue());
+	}
+
+	@Test
+	public void delete() throws Exception {
+		File file = this.store.store("a.jpg", () -> new ByteArrayInputStream(BYTES))
+				.getFile();
+		this.store.delete("a.jpg");
+		assertThat(this.store.get("a.jpg"), nullValue());
+		assertThat(file.getParentFile().list().length, equalTo(0));
+		this.store.delete("a.jpg");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fileRefMustNotContainPath() throws Exception {
+		this.store.get("../a.jpg");
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.codahale.metrics.MetricRegistry;
+
+import doge.photo.Photo;
+
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link PhotoCache}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class PhotoCacheTest {
+
+	private PhotoCache cache = createCache(16 * 1024);
+
+	@Test
+	public void countsStoredLength() throws Exception {
+		this.cache = createCache(8 * 1024);
+		put("a", 1000);
+		put("b", 1000);
+		put("c", 1000);
+		assertThat(get("a"), nullValue());
+		assertThat(get("b"), notNullValue());
+		assertThat(get("c"), notNullValue());
+	}
+
+	@Test
+	public void evictsPhotoReadLongestAgo() throws Exception {
+		this.cache = createCache(8 * 1024);
+		put("a", 4096);
+		put("b", 4096);
+		get("a");
+		put("c", 4096);
+		assertThat(get("a"), notNullValue());
+		assertThat(get("b"), nullValue());
+		assertThat(get("c"), notNullValue());
+	}
+
+	@Test
+	public void evictsSmallerPhotosToStoreLargerPhoto() throws Exception {
+		put("a", 4096);
+		put("b", 4096);
+		put("c", 4096);
+		put("d", 4096);
+		put("large", 8192);
+		assertThat(get("large"), notNullValue());
+		assertThat(get("a"), nullValue());
+		assertThat(get("b"), nullValue());
+		assertThat(get("c"), notNullValue());
+		assertThat(get("d"), notNullValue());
+	}
+
+	@Test
+	public void stopsEvictingWhenRoomCannotBeMade() throws Exception {
+		put("a", 4096);
+		put("b", 4096);
+		put("c", 4096);
+		put("d", 4096);
+		try (InputStream inputStream = get("a").getInputStream()) {
+			get("b");
+			get("c");
+			get("d");
+			put("large", 16 * 1024);
+			assertThat(get("large"), nullValue());
+			assertThat(get("b"), notNullValue());
+			assertThat(get("c"), notNullValue());
+			assertThat(get("d"), notNullValue());
+		}
+	}
+
+	private PhotoCache createCache(long maxBytes) {
+		return new PhotoCache(new MetricRegistry(), new DirectPhotoByteStore(16 * 1024),
+				maxBytes);
+	}
+
+	private void put(String key, int length) {
+		byte[] bytes = new byte[length];
+		Photo source = () -> new ByteArrayInputStream(bytes);
+		this.cache.put(key, "user", bytes, "md5", new Date(), source);
+	}
+
+	private StoredPhoto get(String key) {
+		return this.cache.get(key, "user");
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link ReferenceCache}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class ReferenceCacheTest {
+
+	@Test
+	public void putAndGet() throws Exception {
+		ReferenceCache<String, String> cache = new ReferenceCache<>(2);
+		cache.put("a", "A");
+		assertThat(cache.get("a"), equalTo("A"));
+		cache.remove("a");
+		assertThat(cache.get("a"), nullValue());
+	}
+
+	@Test
+	public void evictsEntriesThatHaveNotBeenRead() throws Exception {
+		ReferenceCache<String, String> cache = new ReferenceCache<>(2);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.get("a");
+		cache.put("c", "C");
+		assertThat(cache.size(), equalTo(2));
+		assertThat(cache.get("a"), equalTo("A"));
+		assertThat(cache.get("b"), nullValue());
+		assertThat(cache.get("c"), equalTo("C"));
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Snapshot;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Tests for {@link RollingHistogramReservoir}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class RollingHistogramReservoirTest {
+
+	private final ManualClock clock = new ManualClock();
+
+	private final RollingHistogramReservoir reservoir = new RollingHistogramReservoir(
+			60, TimeUnit.SECONDS, this.clock);
+
+	@Test
+	public void bucketValuesAreWithinPrecision() throws Exception {
+		int previous = 0;
+		for (long value = 0; value < 1000000; value++) {
+			int bucket = RollingHistogramReservoir.getBucket(value);
+			assertThat(bucket - previous, lessThanOrEqualTo(1));
+			long bucketValue = RollingHistogramReservoir.getBucketValue(bucket);
+			assertThat(Math.abs(bucketValue - value) * 32, lessThanOrEqualTo(value));
+			previous = bucket;
+		}
+		assertThat(RollingHistogramReservoir.getBucket(Long.MAX_VALUE),
+				lessThanOrEqualTo(59 * 32 - 1));
+	}
+
+	@Test
+	public void quantiles() throws Exception {
+		for (int value = 1; value <= 10000; value++) {
+			this.reservoir.update(value * 1000L);
+		}
+		Snapshot snapshot = this.reservoir.getSnapshot();
+		assertThat(snapshot.size(), equalTo(10000));
+		assertWithinPrecision(snapshot.getMin(), 1000);
+		assertWithinPrecision(snapshot.getMax(), 10000000);
+		assertWithinPrecision(snapshot.getMedian(), 5000000);
+		assertWithinPrecision(snapshot.get99thPercentile(), 9900000);
+		assertWithinPrecision(snapshot.getMean(), 5000500);
+	}
+
+	@Test
+	public void valuesLeaveTheWindow() throws Exception {
+		this.reservoir.update(100);
+		this.clock.advance(30, TimeUnit.SECONDS);
+		this.reservoir.update(200);
+		assertThat(this.reservoir.size(), equalTo(2));
+		this.clock.advance(40, TimeUnit.SECONDS);
+		assertThat(this.reservoir.size(), equalTo(1));
+		assertWithinPrecision(this.reservoir.getSnapshot().getMax(), 200);
+		this.clock.advance(60, TimeUnit.SECONDS);
+		assertThat(this.reservoir.size(), equalTo(0));
+		this.reservoir.update(300);
+		assertThat(this.reservoir.size(), equalTo(1));
+	}
+
+	private void assertWithinPrecision(double actual, double expected) {
+		assertThat(Math.abs(actual - expected) * 32, lessThanOrEqualTo(expected));
+	}
+
+	private static class ManualClock extends Clock {
+
+		private long tick = -TimeUnit.MINUTES.toNanos(5);
+
+		public void advance(long duration, TimeUnit unit) {
+			this.tick += unit.toNanos(duration);
+		}
+
+		@Override
+		public long getTick() {
+			return this.tick;
+		}
+
+	}
+
+}
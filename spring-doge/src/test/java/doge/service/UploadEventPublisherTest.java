@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import com.codahale.metrics.MetricRegistry;
+
+import doge.domain.User;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link UploadEventPublisher}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class UploadEventPublisherTest {
+
+	private final UploadEventRelay relay = new LocalUploadEventRelay();
+
+	private final SimpMessagingTemplate messaging = mock(SimpMessagingTemplate.class);
+
+	private final MetricRegistry registry = new MetricRegistry();
+
+	private final PipelineMetrics metrics = new PipelineMetrics(this.registry, 60);
+
+	private final User user = new User("joshlong", "Josh Long");
+
+	@Test
+	public void eventsAreCoalescedUntilFlushed() throws Exception {
+		UploadEventPublisher publisher = new UploadEventPublisher(this.relay,
+				this.messaging, this.metrics, 60000, 100);
+		publisher.publish(createEvent("1"));
+		publisher.publish(createEvent("2"));
+		verify(this.messaging, never()).convertAndSend(eq("/topic/alarms"),
+				any(Object.class));
+		publisher.flush();
+		assertThat(getSentBatchSizes(1), equalTo(Arrays.asList(2)));
+		publisher.destroy();
+	}
+
+	@Test
+	public void fullBatchIsSentImmediatelyAndSplit() throws Exception {
+		UploadEventPublisher publisher = new UploadEventPublisher(this.relay,
+				this.messaging, this.metrics, 60000, 2);
+		publisher.publish(Arrays.asList(createEvent("1"), createEvent("2"),
+				createEvent("3")));
+		assertThat(getSentBatchSizes(2), equalTo(Arrays.asList(2, 1)));
+		publisher.destroy();
+	}
+
+	@Test
+	public void zeroWindowSendsImmediately() throws Exception {
+		UploadEventPublisher publisher = new UploadEventPublisher(this.relay,
+				this.messaging, this.metrics, 0, 100);
+		publisher.publish(createEvent("1"));
+		assertThat(getSentBatchSizes(1), equalTo(Arrays.asList(1)));
+		assertThat(this.registry.timer("pipeline.stomp-publish").getCount(),
+				equalTo(1L));
+	}
+
+	private UploadEvent createEvent(String dogeId) {
+		return new UploadEvent(this.user, URI.create("/users/joshlong/doge/" + dogeId));
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Integer> getSentBatchSizes(int messages) {
+		ArgumentCaptor<Map> captor = ArgumentCaptor.forClass(Map.class);
+		verify(this.messaging, times(messages)).convertAndSend(eq("/topic/alarms"),
+				captor.capture());
+		return captor.getAllValues().stream()
+				.map((msg) -> ((List<?>) msg.get("uploads")).size())
+				.collect(Collectors.toList());
+	}
+
+}
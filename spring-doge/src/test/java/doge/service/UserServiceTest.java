@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package doge.service;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import doge.domain.User;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link UserService}.
+ *
+ * @author Josh Long
+ * @author Phillip Webb
+ */
+public class UserServiceTest {
+
+	private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+
+	private final UserService service = new UserService(this.mongoTemplate,
+			new ObjectMapper(), 2, 60000, 16);
+
+	@Test
+	public void fullPageHasNextAfter() throws Exception {
+		given(this.mongoTemplate.find(any(Query.class), eq(User.class))).willReturn(
+				Arrays.asList(new User("joshlong", "Josh Long"), new User("philwebb",
+						"Phil Webb")));
+		UserPage page = this.service.getUsers(null, 10, null);
+		assertThat(new String(page.getJson(), "UTF-8"),
+				equalTo("[{\"id\":\"joshlong\",\"name\":\"Josh Long\"},"
+						+ "{\"id\":\"philwebb\",\"name\":\"Phil Webb\"}]"));
+		assertThat(page.getNextAfter(), equalTo("philwebb"));
+	}
+
+	@Test
+	public void projectedLastPage() throws Exception {
+		given(this.mongoTemplate.find(any(Query.class), eq(User.class))).willReturn(
+				Collections.singletonList(new User("philwebb", null)));
+		UserPage page = this.service.getUsers("joshlong", 2, Arrays.asList("id"));
+		assertThat(new String(page.getJson(), "UTF-8"),
+				equalTo("[{\"id\":\"philwebb\"}]"));
+		assertThat(page.getNextAfter(), nullValue());
+	}
+
+	@Test
+	public void pagesAreCached() throws Exception {
+		given(this.mongoTemplate.find(any(Query.class), eq(User.class))).willReturn(
+				Collections.<User> emptyList());
+		UserPage page = this.service.getUsers(null, 2, Arrays.asList("name", "id"));
+		assertThat(this.service.getUsers(null, 2, Arrays.asList("id", "name")),
+				sameInstance(page));
+		verify(this.mongoTemplate, times(1)).find(any(Query.class), eq(User.class));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownField() throws Exception {
+		this.service.getUsers(null, 2, Arrays.asList("password"));
+	}
+
+}